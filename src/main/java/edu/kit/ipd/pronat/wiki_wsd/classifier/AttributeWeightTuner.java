@@ -0,0 +1,351 @@
+package edu.kit.ipd.pronat.wiki_wsd.classifier;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.estimators.Estimator;
+
+/**
+ * Tool to find good attribute weights and a good smoothing prior for a
+ * trained {@link EfficientNaiveBayes}. The counts of the attribute values of
+ * the evaluation instances are looked up once: for each distinct value the
+ * classes that have seen it and their counts, shared by all instances with
+ * the value. All other classes get the probability of an unseen value, which
+ * only depends on the attribute and the class. Each configuration is then
+ * scored for all classes from these cached counts, so a whole grid can be
+ * evaluated without looking up the counts again.
+ *
+ * An instance counts as correct if the decision of
+ * {@link ClassifierService#classifyInstanceWithLemma(Instance, String)} is its
+ * class: the top 3 classes are disambiguated with the actualWord as lemma. The
+ * class prior is not smoothed again for other priors.
+ *
+ * Usage: AttributeWeightTuner model evaluationInstances
+ *
+ * with the model serialized by
+ * {@link SerializationHelper#serializeEfficientNaiveBayesClassifier(EfficientNaiveBayes, String)}
+ * and the filtered evaluation instances serialized by
+ * {@link SerializationHelper#serializeInstances(Instances, String)}.
+ *
+ * @author Jan Keim
+ * @author Sebastian Weigelt
+ *
+ */
+public class AttributeWeightTuner {
+	private final int numAttributes;
+	private final int numClasses;
+	private final int[] numSymbols;
+	private final double[] logClassPrior;
+	/** counts without prior, per attribute and class */
+	private final double[][] rawSums;
+	/** the counts of the values of the evaluation instances by attribute and value */
+	private final Map<Long, ValueCounts> valueCounts = new ConcurrentHashMap<>();
+	private final List<CachedInstance> instances;
+	/** per attribute and class: the log-probability of an unseen value for the current prior */
+	private final double[][] logUnseen;
+
+	/**
+	 * Caches the counts of the evaluation instances.
+	 *
+	 * @param classifier
+	 *            the trained classifier
+	 * @param evaluation
+	 *            the filtered evaluation instances
+	 */
+	public AttributeWeightTuner(EfficientNaiveBayes classifier, Instances evaluation) {
+		Estimator[][] distributions = classifier.getDistributions();
+		numClasses = classifier.getNumClasses();
+		numAttributes = distributions.length;
+		numSymbols = new int[numAttributes];
+		rawSums = new double[numAttributes][numClasses];
+		logUnseen = new double[numAttributes][numClasses];
+		for (int a = 0; a < numAttributes; a++) {
+			for (int c = 0; c < numClasses; c++) {
+				SparseDiscreteEstimator estimator = (SparseDiscreteEstimator) distributions[a][c];
+				numSymbols[a] = estimator.getNumSymbols();
+				rawSums[a][c] = estimator.getSumOfCounts() - (estimator.getPrior() * estimator.getNumSymbols());
+			}
+		}
+		logClassPrior = new double[numClasses];
+		for (int c = 0; c < numClasses; c++) {
+			logClassPrior[c] = Math.log(classifier.getClassDistribution().getProbability(c));
+		}
+
+		Attribute actualWord = evaluation.attribute("actualWord");
+		instances = IntStream.range(0, evaluation.size())
+				.parallel()
+				.mapToObj(evaluation::get)
+				.filter(instance -> !instance.classIsMissing())
+				.map(instance -> new CachedInstance(instance, distributions, actualWord))
+				.collect(Collectors.toList());
+	}
+
+	private static int actualWordIndex(Instances header) {
+		int attIndex = 0;
+		Enumeration<Attribute> enumAtts = header.enumerateAttributes();
+		while (enumAtts.hasMoreElements()) {
+			if ("actualWord".equals(enumAtts.nextElement().name())) {
+				return attIndex;
+			}
+			attIndex++;
+		}
+		return 0;
+	}
+
+	/**
+	 * Returns the lemma the service would be called with: the actualWord in
+	 * lower case, empty if it is missing or unknown, e.g. in a compact header.
+	 */
+	private static String lemma(Instance instance, Attribute actualWord) {
+		if ((actualWord == null) || instance.isMissing(actualWord)) {
+			return "";
+		}
+		if (actualWord.isNominal() && (instance.value(actualWord) >= actualWord.numValues())) {
+			return "";
+		}
+		return instance.stringValue(actualWord).toLowerCase();
+	}
+
+	/**
+	 * Evaluates all combinations of the weight configurations and priors in
+	 * parallel.
+	 *
+	 * @param weightConfigurations
+	 *            the weights, one per attribute without the class
+	 * @param priors
+	 *            the priors the counts are initialized with
+	 * @return the weighted accuracy of each combination
+	 */
+	public List<Result> evaluate(List<double[]> weightConfigurations, double[] priors) {
+		for (double[] weights : weightConfigurations) {
+			if (weights.length != numAttributes) {
+				throw new IllegalArgumentException("Need " + numAttributes + " weights, got " + weights.length);
+			}
+		}
+		List<Result> results = new ArrayList<>();
+		for (double prior : priors) {
+			computeLogUnseen(prior);
+			valueCounts.values().parallelStream().forEach(counts -> counts.computeLogRatios(prior));
+			results.addAll(
+					weightConfigurations.parallelStream().map(weights -> new Result(weights, prior, accuracy(weights))).collect(Collectors.toList()));
+		}
+		return results;
+	}
+
+	private void computeLogUnseen(double prior) {
+		for (int a = 0; a < numAttributes; a++) {
+			for (int c = 0; c < numClasses; c++) {
+				logUnseen[a][c] = Math.log(prior / (rawSums[a][c] + (prior * numSymbols[a])));
+			}
+		}
+	}
+
+	private double accuracy(double[] weights) {
+		// the scores of unseen values for each set of present attributes
+		Map<BitSet, double[]> unseenScores = new HashMap<>();
+		double[] scores = new double[numClasses];
+		double correct = 0;
+		double total = 0;
+		for (CachedInstance cached : instances) {
+			double[] unseen = unseenScores.computeIfAbsent(cached.present, present -> unseenScores(weights, present));
+			Classification classification = cached.classify(weights, unseen, scores);
+			if (classification.getClassificationString().equals(cached.instance.classAttribute().value((int) cached.instance.classValue()))) {
+				correct += cached.instance.weight();
+			}
+			total += cached.instance.weight();
+		}
+		return total == 0 ? 0 : correct / total;
+	}
+
+	/**
+	 * Returns the weighted sum of the log-probabilities of unseen values of the
+	 * attributes per class.
+	 */
+	private double[] unseenScores(double[] weights, BitSet present) {
+		double[] scores = new double[numClasses];
+		for (int a = present.nextSetBit(0); a >= 0; a = present.nextSetBit(a + 1)) {
+			ScoringKernel.accumulate(scores, logUnseen[a], weights[a]);
+		}
+		return scores;
+	}
+
+	/**
+	 * Creates weight configurations that only vary the weight of one attribute.
+	 * All other attributes have the weight 1.
+	 *
+	 * @param attIndex
+	 *            the index of the attribute (without the class)
+	 * @param weights
+	 *            the weights of the attribute
+	 * @return the weight configurations
+	 */
+	public List<double[]> singleAttributeGrid(int attIndex, double... weights) {
+		List<double[]> grid = new ArrayList<>();
+		for (double weight : weights) {
+			double[] configuration = new double[numAttributes];
+			Arrays.fill(configuration, 1d);
+			configuration[attIndex] = weight;
+			grid.add(configuration);
+		}
+		return grid;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: AttributeWeightTuner model evaluationInstances");
+			return;
+		}
+		EfficientNaiveBayes classifier;
+		Instances evaluation;
+		try (InputStream model = new FileInputStream(args[0]); InputStream data = new FileInputStream(args[1])) {
+			classifier = SerializationHelper.deserializeEfficientNaiveBayesClassifier(model).orElseThrow();
+			evaluation = SerializationHelper.deserializeInstances(data).orElseThrow();
+		}
+		AttributeWeightTuner tuner = new AttributeWeightTuner(classifier, evaluation);
+		List<double[]> grid = tuner.singleAttributeGrid(AttributeWeightTuner.actualWordIndex(evaluation), 1, 2, 5, 10, 15, 20, 30);
+		for (Result result : tuner.evaluate(grid, new double[] { 0.01, 0.1, 0.5, 1 })) {
+			System.out.println(result);
+		}
+	}
+
+	/**
+	 * Accuracy of one configuration.
+	 */
+	public static final class Result {
+		private final double[] weights;
+		private final double prior;
+		private final double accuracy;
+
+		private Result(double[] weights, double prior, double accuracy) {
+			this.weights = weights;
+			this.prior = prior;
+			this.accuracy = accuracy;
+		}
+
+		/**
+		 * @return the attribute weights
+		 */
+		public double[] getWeights() {
+			return weights.clone();
+		}
+
+		/**
+		 * @return the prior
+		 */
+		public double getPrior() {
+			return prior;
+		}
+
+		/**
+		 * @return the weighted accuracy
+		 */
+		public double getAccuracy() {
+			return accuracy;
+		}
+
+		@Override
+		public String toString() {
+			return "weights=" + Arrays.toString(weights) + " prior=" + prior + " accuracy=" + accuracy;
+		}
+	}
+
+	private final class CachedInstance {
+		private final Instance instance;
+		private final String lemma;
+		/** the attributes (without the class) that are not missing */
+		private final BitSet present = new BitSet();
+		/** per attribute: the counts of the value, null if missing */
+		private final ValueCounts[] values;
+
+		private CachedInstance(Instance instance, Estimator[][] distributions, Attribute actualWord) {
+			this.instance = instance;
+			lemma = AttributeWeightTuner.lemma(instance, actualWord);
+			values = new ValueCounts[distributions.length];
+
+			Enumeration<Attribute> enumAtts = instance.enumerateAttributes();
+			int attIndex = -1;
+			while (enumAtts.hasMoreElements()) {
+				attIndex++;
+				Attribute attribute = enumAtts.nextElement();
+				if (instance.isMissing(attribute)) {
+					continue;
+				}
+				int a = attIndex;
+				int value = (int) instance.value(attribute);
+				present.set(a);
+				values[a] = valueCounts.computeIfAbsent(((long) a << Integer.SIZE) | value, key -> new ValueCounts(distributions[a], value));
+			}
+		}
+
+		/**
+		 * Scores all classes like {@link EfficientNaiveBayes} and disambiguates the
+		 * top 3 like {@link ClassifierService}.
+		 */
+		private Classification classify(double[] weights, double[] unseenScores, double[] scores) {
+			for (int c = 0; c < numClasses; c++) {
+				scores[c] = logClassPrior[c] + (instance.weight() * unseenScores[c]);
+			}
+			for (int a = present.nextSetBit(0); a >= 0; a = present.nextSetBit(a + 1)) {
+				double factor = weights[a] * instance.weight();
+				ValueCounts counts = values[a];
+				for (int i = 0; i < counts.classes.length; i++) {
+					scores[counts.classes[i]] += factor * counts.logRatios[i];
+				}
+			}
+			int[] top = ScoringKernel.topK(scores, 3, Integer.MIN_VALUE);
+			Classification[] top3 = new Classification[] { Classification.empty(), Classification.empty(), Classification.empty() };
+			for (int i = 0; i < top.length; i++) {
+				top3[i] = new Classification(instance.classAttribute().value(top[i]), scores[top[i]]);
+			}
+			return ClassifierService.disambiguate(top3, lemma);
+		}
+	}
+
+	/**
+	 * The counts of one value of an attribute for the classes that have seen it.
+	 */
+	private static final class ValueCounts {
+		private final int[] classes;
+		/** the counts without prior */
+		private final double[] rawCounts;
+		/** log((count + prior) / prior) for the current prior, added to the score of an unseen value */
+		private final double[] logRatios;
+
+		private ValueCounts(Estimator[] estimators, int value) {
+			List<Integer> seen = new ArrayList<>();
+			for (int c = 0; c < estimators.length; c++) {
+				SparseDiscreteEstimator estimator = (SparseDiscreteEstimator) estimators[c];
+				if (estimator.countOf(value) != estimator.getPrior()) {
+					seen.add(c);
+				}
+			}
+			classes = seen.stream().mapToInt(Integer::intValue).toArray();
+			rawCounts = new double[classes.length];
+			for (int i = 0; i < classes.length; i++) {
+				SparseDiscreteEstimator estimator = (SparseDiscreteEstimator) estimators[classes[i]];
+				rawCounts[i] = estimator.countOf(value) - estimator.getPrior();
+			}
+			logRatios = new double[classes.length];
+		}
+
+		private void computeLogRatios(double prior) {
+			for (int i = 0; i < classes.length; i++) {
+				logRatios[i] = Math.log((rawCounts[i] + prior) / prior);
+			}
+		}
+	}
+}
@@ -0,0 +1,367 @@
+package edu.kit.ipd.pronat.wiki_wsd.classifier;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.filters.Filter;
+
+/**
+ * Annotates a large corpus of target words with their top k senses. The input
+ * is a UTF-8 TSV file with one target per line and the 18 features of
+ * {@link ClassifierService#getAttributes()} (without the class) in that
+ * order: actualWord, actualWordPOS, word-3, word-3POS, ..., word+3POS, leftNN,
+ * leftVB, rightNN, rightVB. Empty fields and missing trailing fields are
+ * treated as "NONE". For each input line, the output contains one line with
+ * the top k senses and their scores, tab-separated, in input order. Empty
+ * input lines stay empty.
+ *
+ * The input is read in chunks of whole lines by a reader thread, the chunks
+ * are parsed and classified by a pool of workers and written by the calling
+ * thread in input order. At most two chunks per worker are in flight. With a
+ * {@link SharedVocabularyFilter} the workers do not block each other, other
+ * filters are used by one worker at a time.
+ *
+ * Every few chunks the output is forced to disk and the input and output
+ * offsets are written to a resume file next to the output. A new run with the
+ * same files continues after the last checkpoint, the resume file is deleted
+ * when the input is done.
+ *
+ * Usage: BulkAnnotator model filter input output [topK [threads]]
+ *
+ * @author Jan Keim
+ * @author Sebastian Weigelt
+ *
+ */
+public class BulkAnnotator {
+	private static final Logger logger = LoggerFactory.getLogger(BulkAnnotator.class);
+
+	/** Default number of senses per target */
+	public static final int DEFAULT_TOP_K = 3;
+	/** Default size of the chunks the input is read in, in bytes */
+	public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+	/** Suffix of the resume file next to the output */
+	public static final String RESUME_SUFFIX = ".resume";
+
+	private static final int NUM_FEATURES = 18;
+	private static final String NONE_VAL = "NONE";
+	private static final int CHECKPOINT_INTERVAL = 16;
+	private static final long REPORT_INTERVAL_NANOS = 10_000_000_000L;
+	private static final String KEY_INPUT_OFFSET = "inputOffset";
+	private static final String KEY_OUTPUT_OFFSET = "outputOffset";
+	private static final String KEY_LINES = "lines";
+	private static final ChunkResult END = new ChunkResult(new byte[0], 0, -1);
+
+	private final ClassifierService classifierService;
+	private final int topK;
+	private final int numThreads;
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+	/**
+	 * Creates an annotator.
+	 *
+	 * @param classifierService
+	 *            the service used for classification
+	 * @param topK
+	 *            the number of senses per target
+	 * @param numThreads
+	 *            the number of workers that parse and classify
+	 */
+	public BulkAnnotator(ClassifierService classifierService, int topK, int numThreads) {
+		if ((topK <= 0) || (numThreads <= 0)) {
+			throw new IllegalArgumentException("Top k and number of threads have to be positive!");
+		}
+		this.classifierService = classifierService;
+		this.topK = topK;
+		this.numThreads = numThreads;
+	}
+
+	/**
+	 * @return the size of the chunks the input is read in, in bytes
+	 */
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * Sets the size of the chunks the input is read in. Chunks always end at a
+	 * line break, longer lines enlarge the chunk.
+	 *
+	 * @param chunkSize
+	 *            the chunk size in bytes
+	 */
+	public void setChunkSize(int chunkSize) {
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException("Chunk size has to be positive!");
+		}
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Annotates all lines of the input, resuming after the last checkpoint if
+	 * there is a resume file for the output.
+	 *
+	 * @param input
+	 *            the TSV input
+	 * @param output
+	 *            the output file
+	 * @return the number of lines annotated in this run
+	 * @throws IOException
+	 *             if the input cannot be read, the output cannot be written or a
+	 *             line cannot be annotated
+	 */
+	public long annotate(Path input, Path output) throws IOException {
+		Path resumeFile = output.resolveSibling(output.getFileName() + RESUME_SUFFIX);
+		long inputOffset = 0;
+		long outputOffset = 0;
+		long lines = 0;
+		if (Files.exists(resumeFile)) {
+			Properties resume = new Properties();
+			try (InputStream resumeInput = Files.newInputStream(resumeFile)) {
+				resume.load(resumeInput);
+			}
+			inputOffset = Long.parseLong(resume.getProperty(KEY_INPUT_OFFSET));
+			outputOffset = Long.parseLong(resume.getProperty(KEY_OUTPUT_OFFSET));
+			lines = Long.parseLong(resume.getProperty(KEY_LINES));
+			BulkAnnotator.logger.info("Resuming after {} lines at input offset {}", lines, inputOffset);
+		}
+		long initialLines = lines;
+		long initialInputOffset = inputOffset;
+
+		AtomicInteger threadCount = new AtomicInteger();
+		ExecutorService workers = Executors.newFixedThreadPool(numThreads, runnable -> {
+			Thread thread = new Thread(runnable, "bulk-annotator-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		BlockingQueue<Future<ChunkResult>> pending = new ArrayBlockingQueue<>(2 * numThreads);
+		try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+				FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+			// drop output written after the last checkpoint
+			out.truncate(outputOffset);
+			out.position(outputOffset);
+			in.position(inputOffset);
+			Thread reader = new Thread(() -> read(in, workers, pending), "bulk-annotator-reader");
+			reader.setDaemon(true);
+			reader.start();
+
+			long start = System.nanoTime();
+			long lastReport = start;
+			int chunks = 0;
+			try {
+				while (true) {
+					ChunkResult result = pending.take().get();
+					if (result == END) {
+						break;
+					}
+					ByteBuffer buffer = ByteBuffer.wrap(result.output);
+					while (buffer.hasRemaining()) {
+						out.write(buffer);
+					}
+					lines += result.lines;
+					inputOffset = result.inputEnd;
+					outputOffset += result.output.length;
+					if ((++chunks % CHECKPOINT_INTERVAL) == 0) {
+						out.force(false);
+						writeResumeFile(resumeFile, inputOffset, outputOffset, lines);
+					}
+					long now = System.nanoTime();
+					if ((now - lastReport) >= REPORT_INTERVAL_NANOS) {
+						BulkAnnotator.report(lines - initialLines, inputOffset - initialInputOffset, now - start);
+						lastReport = now;
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while annotating " + input, e);
+			} catch (ExecutionException e) {
+				throw new IOException("Could not annotate " + input, e.getCause());
+			} finally {
+				reader.interrupt();
+			}
+			out.force(false);
+			BulkAnnotator.report(lines - initialLines, inputOffset - initialInputOffset, System.nanoTime() - start);
+		} finally {
+			workers.shutdownNow();
+		}
+		Files.deleteIfExists(resumeFile);
+		return lines - initialLines;
+	}
+
+	/**
+	 * Reads the input in chunks of whole lines and submits them to the workers.
+	 * The queue of pending chunks is ended with {@link #END} or a failed future.
+	 */
+	private void read(FileChannel in, ExecutorService workers, BlockingQueue<Future<ChunkResult>> pending) {
+		try {
+			long position = in.position();
+			ByteBuffer buffer = ByteBuffer.allocate(chunkSize);
+			boolean endOfInput = false;
+			while (!endOfInput) {
+				while (buffer.hasRemaining() && !endOfInput) {
+					endOfInput = in.read(buffer) < 0;
+				}
+				buffer.flip();
+				int end = buffer.limit();
+				if (!endOfInput) {
+					// the chunk ends after the last line break
+					while ((end > 0) && (buffer.get(end - 1) != '\n')) {
+						end--;
+					}
+					if (end == 0) {
+						// a line longer than the buffer
+						ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+						larger.put(buffer);
+						buffer = larger;
+						continue;
+					}
+				}
+				byte[] chunk = new byte[end];
+				buffer.get(chunk);
+				buffer.compact();
+				if (chunk.length > 0) {
+					position += chunk.length;
+					long chunkEnd = position;
+					pending.put(CompletableFuture.supplyAsync(() -> annotate(chunk, chunkEnd), workers));
+				}
+			}
+			pending.put(CompletableFuture.completedFuture(END));
+		} catch (IOException e) {
+			try {
+				pending.put(CompletableFuture.failedFuture(e));
+			} catch (InterruptedException interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		} catch (InterruptedException e) {
+			// the writer stopped
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Parses and classifies the lines of a chunk.
+	 */
+	private ChunkResult annotate(byte[] chunk, long inputEnd) {
+		String text = new String(chunk, StandardCharsets.UTF_8);
+		// string values are stored in the header, so each chunk gets its own
+		Instances header = ClassifierService.getEmptyInstancesHeader();
+		StringBuilder output = new StringBuilder(chunk.length);
+		int numLines = 0;
+		int lineStart = 0;
+		while (lineStart < text.length()) {
+			int lineEnd = text.indexOf('\n', lineStart);
+			if (lineEnd < 0) {
+				lineEnd = text.length();
+			}
+			String line = text.substring(lineStart, (lineEnd > lineStart) && (text.charAt(lineEnd - 1) == '\r') ? lineEnd - 1 : lineEnd);
+			if (!line.isEmpty()) {
+				appendAnnotation(output, line, header);
+			}
+			output.append('\n');
+			numLines++;
+			lineStart = lineEnd + 1;
+		}
+		return new ChunkResult(output.toString().getBytes(StandardCharsets.UTF_8), numLines, inputEnd);
+	}
+
+	private void appendAnnotation(StringBuilder output, String line, Instances header) {
+		String[] fields = Arrays.copyOf(line.split("\t", -1), NUM_FEATURES);
+		for (int i = 0; i < fields.length; i++) {
+			if ((fields[i] == null) || fields[i].isEmpty()) {
+				fields[i] = NONE_VAL;
+			}
+		}
+		Instance instance = new InstanceBuilder(header).setActualWordWithPOS(fields[0], fields[1])
+				.set3rdLeftWithPOS(fields[2], fields[3])
+				.set2ndLeftWithPOS(fields[4], fields[5])
+				.set1stLeftWithPOS(fields[6], fields[7])
+				.set1stRightWithPOS(fields[8], fields[9])
+				.set2ndRightWithPOS(fields[10], fields[11])
+				.set3rdRightWithPOS(fields[12], fields[13])
+				.setLeftNoun(fields[14])
+				.setLeftVerb(fields[15])
+				.setRightNoun(fields[16])
+				.setRightVerb(fields[17])
+				.build();
+		List<Classification> classifications = classifierService.classifyInstanceWithLemma(instance, fields[0].toLowerCase(), topK);
+		for (int i = 0; i < classifications.size(); i++) {
+			if (i > 0) {
+				output.append('\t');
+			}
+			Classification classification = classifications.get(i);
+			output.append(classification.getClassificationString()).append('\t').append(classification.getProbability());
+		}
+	}
+
+	private static void writeResumeFile(Path resumeFile, long inputOffset, long outputOffset, long lines) throws IOException {
+		Properties resume = new Properties();
+		resume.setProperty(KEY_INPUT_OFFSET, Long.toString(inputOffset));
+		resume.setProperty(KEY_OUTPUT_OFFSET, Long.toString(outputOffset));
+		resume.setProperty(KEY_LINES, Long.toString(lines));
+		SerializationHelper.writeAtomically(resume, "BulkAnnotator resume offsets", resumeFile);
+	}
+
+	private static void report(long lines, long bytes, long nanos) {
+		double seconds = Math.max(nanos, 1) / 1e9;
+		BulkAnnotator.logger.info(String.format("%d lines in %.1f s: %.0f lines/s, %.1f MB/s", lines, seconds, lines / seconds, bytes / seconds / 1e6));
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 4) {
+			System.err.println("Usage: BulkAnnotator model filter input output [topK [threads]]");
+			return;
+		}
+		int topK = args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_TOP_K;
+		int numThreads = args.length > 5 ? Integer.parseInt(args[5]) : Runtime.getRuntime().availableProcessors();
+		EfficientNaiveBayes model;
+		Filter filter;
+		try (InputStream modelInput = new FileInputStream(args[0]); InputStream filterInput = new FileInputStream(args[1])) {
+			model = SerializationHelper.deserializeEfficientNaiveBayesClassifier(modelInput).orElseThrow(() -> new IOException("Could not read model"));
+			filter = SerializationHelper.deserializeFilter(filterInput).orElseThrow(() -> new IOException("Could not read filter"));
+		}
+		BulkAnnotator annotator = new BulkAnnotator(new ClassifierService(model, filter), topK, numThreads);
+		long start = System.nanoTime();
+		long lines = annotator.annotate(Paths.get(args[2]), Paths.get(args[3]));
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.println(String.format("Annotated %d lines in %.1f s (%.0f lines/s) with %d threads", lines, seconds, lines / seconds, numThreads));
+	}
+
+	/**
+	 * The annotated lines of a chunk.
+	 */
+	private static final class ChunkResult {
+		private final byte[] output;
+		private final int lines;
+		/** the input offset after the chunk */
+		private final long inputEnd;
+
+		private ChunkResult(byte[] output, int lines, long inputEnd) {
+			this.output = output;
+			this.lines = lines;
+			this.inputEnd = inputEnd;
+		}
+	}
+}
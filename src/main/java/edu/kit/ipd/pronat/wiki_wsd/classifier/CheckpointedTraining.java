@@ -0,0 +1,448 @@
+package edu.kit.ipd.pronat.wiki_wsd.classifier;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.estimators.Estimator;
+
+/**
+ * Trains an {@link EfficientNaiveBayes} like
+ * {@link EfficientNaiveBayes#buildClassifier(Instances)}, but in segments of
+ * instances with a checkpoint after each segment, so an aborted training can
+ * be resumed from the last checkpoint.
+ *
+ * A checkpoint directory contains the untrained base model, one
+ * {@link ModelDelta} per finished segment with the estimator entries the
+ * segment changed, and a manifest with the number of finished segments and
+ * the position in the training data. The entries a segment changes are
+ * collected from its instances by a background thread while the previous
+ * segment is trained. At the end of a segment only the counts of these entries
+ * are copied while the workers are idle; the delta, its fingerprint and the
+ * manifest are then created and written in the background while the next
+ * segment is trained.
+ * All files are written to a temporary file and atomically moved into place,
+ * the manifest last, so the manifest always refers to complete files.
+ *
+ * Resuming requires the same training data in the same order.
+ *
+ * @author Jan Keim
+ * @author Sebastian Weigelt
+ *
+ */
+public class CheckpointedTraining {
+	private static final Logger logger = LoggerFactory.getLogger(CheckpointedTraining.class);
+
+	/** Default number of instances per segment */
+	public static final int DEFAULT_SEGMENT_SIZE = 500000;
+
+	private static final String BASE_FILE = "base.model";
+	private static final String MANIFEST_FILE = "checkpoint.properties";
+	private static final String DELTA_FILE_FORMAT = "segment-%06d.delta";
+	private static final String KEY_NUM_INSTANCES = "numInstances";
+	private static final String KEY_POSITION = "position";
+	private static final String KEY_NUM_SEGMENTS = "numSegments";
+
+	private final Path directory;
+	private int segmentSize = DEFAULT_SEGMENT_SIZE;
+
+	/**
+	 * Creates a checkpointed training that keeps its checkpoints in the given
+	 * directory.
+	 *
+	 * @param directory
+	 *            the checkpoint directory, created if it does not exist
+	 */
+	public CheckpointedTraining(Path directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * @return the number of instances per segment
+	 */
+	public int getSegmentSize() {
+		return segmentSize;
+	}
+
+	/**
+	 * Sets the number of instances that are trained between two checkpoints.
+	 *
+	 * @param segmentSize
+	 *            the number of instances per segment
+	 */
+	public void setSegmentSize(int segmentSize) {
+		if (segmentSize <= 0) {
+			throw new IllegalArgumentException("Segment size has to be positive!");
+		}
+		this.segmentSize = segmentSize;
+	}
+
+	/**
+	 * @return whether the checkpoint directory contains a checkpoint
+	 */
+	public boolean hasCheckpoint() {
+		return Files.exists(directory.resolve(MANIFEST_FILE));
+	}
+
+	/**
+	 * Trains the classifier on the instances, resuming from the checkpoint if
+	 * there is one. When resuming, the state of the given classifier is replaced
+	 * by the checkpointed state, only its options are kept. The instances are
+	 * not changed, instances with a missing class are skipped.
+	 *
+	 * @param classifier
+	 *            the classifier to train
+	 * @param instances
+	 *            the training data
+	 * @return the given classifier, trained
+	 * @exception Exception
+	 *                if the classifier could not be trained, some instances of a
+	 *                segment failed (the segment is not checkpointed then) or a
+	 *                checkpoint could not be read or written
+	 */
+	public EfficientNaiveBayes train(EfficientNaiveBayes classifier, Instances instances) throws Exception {
+		Files.createDirectories(directory);
+		instances = new Instances(instances);
+		instances.deleteWithMissingClass();
+
+		int position;
+		int numSegments;
+		if (hasCheckpoint()) {
+			Properties manifest = readManifest();
+			if (Integer.parseInt(manifest.getProperty(KEY_NUM_INSTANCES)) != instances.size()) {
+				throw new Exception("Checkpoint in " + directory + " does not fit the training data");
+			}
+			position = Integer.parseInt(manifest.getProperty(KEY_POSITION));
+			numSegments = Integer.parseInt(manifest.getProperty(KEY_NUM_SEGMENTS));
+			// the caller's classifier is trained, so its options and cancellation apply
+			classifier.replaceModel(restore(numSegments));
+			CheckpointedTraining.logger.info("Resuming training at instance {} of {} after {} segments", position, instances.size(), numSegments);
+		} else {
+			classifier.initializeDistributions(instances);
+			classifier.setHeader(new Instances(instances, 0));
+			SerializationHelper.writeAtomically(classifier, directory.resolve(BASE_FILE));
+			position = 0;
+			numSegments = 0;
+			writeManifest(instances.size(), position, numSegments);
+		}
+
+		ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "checkpoint-writer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			Instances header = classifier.getTrainingHeader();
+			int numClasses = classifier.getNumClasses();
+			long baseFingerprint = ModelDelta.fingerprint(classifier);
+			Future<Long> lastWrite = null;
+			// the entries of the next segment are collected in the background
+			Future<SegmentEntries> nextEntries = writer.submit(segmentEntries(header, numClasses, instances, position));
+			while (position < instances.size()) {
+				int end = Math.min(position + segmentSize, instances.size());
+				List<Instance> segment = instances.subList(position, end);
+				SegmentEntries entries = nextEntries.get();
+				if (end < instances.size()) {
+					nextEntries = writer.submit(segmentEntries(header, numClasses, instances, end));
+				}
+				Snapshot before = entries.snapshot(classifier);
+				TrainingReport report = classifier.updateClassifier(segment);
+				if (report.isCancelled() || report.hasFailures()) {
+					// the partial segment is not checkpointed
+					if (lastWrite != null) {
+						lastWrite.get();
+					}
+					if (report.isCancelled()) {
+						throw new CancellationException("Training was cancelled, the checkpoint at instance " + position + " is kept");
+					}
+					Exception failure = new Exception(report.getFailed() + " instances of the segment at instance " + position
+							+ " could not be trained, the checkpoint at instance " + position + " is kept", report.getFailures().get(0));
+					report.getFailures().stream().skip(1).forEach(failure::addSuppressed);
+					throw failure;
+				}
+
+				// only the touched entries are read while the workers are idle, the delta
+				// is created and written in the background
+				Snapshot after = before.reread(classifier);
+				position = end;
+				numSegments++;
+				if (lastWrite != null) {
+					// at most one pending checkpoint, also surfaces write errors
+					baseFingerprint = lastWrite.get();
+				}
+				lastWrite = writer.submit(checkpointCallable(before, after, baseFingerprint, instances.size(), position, numSegments));
+			}
+			if (lastWrite != null) {
+				lastWrite.get();
+			}
+		} catch (ExecutionException e) {
+			throw new IOException("Could not write checkpoint to " + directory, e.getCause());
+		} finally {
+			writer.shutdown();
+		}
+
+		classifier.finishBuild();
+		return classifier;
+	}
+
+	private Callable<SegmentEntries> segmentEntries(Instances header, int numClasses, Instances instances, int from) {
+		List<Instance> segment = instances.subList(from, Math.min(from + segmentSize, instances.size()));
+		return () -> SegmentEntries.of(header, numClasses, segment);
+	}
+
+	private Callable<Long> checkpointCallable(Snapshot before, Snapshot after, long baseFingerprint, int numInstances, int position, int numSegments) {
+		return () -> {
+			long targetFingerprint = (baseFingerprint + after.fingerprint()) - before.fingerprint();
+			ModelDelta delta = new ModelDelta(baseFingerprint, targetFingerprint, after.estimatorDeltas());
+			SerializationHelper.writeAtomically(delta, deltaFile(numSegments));
+			writeManifest(numInstances, position, numSegments);
+			return targetFingerprint;
+		};
+	}
+
+	private EfficientNaiveBayes restore(int numSegments) throws IOException {
+		EfficientNaiveBayes model;
+		try (InputStream input = Files.newInputStream(directory.resolve(BASE_FILE))) {
+			model = SerializationHelper.deserializeEfficientNaiveBayesClassifier(input)
+					.orElseThrow(() -> new IOException("Could not read base model in " + directory));
+		}
+		for (int segment = 1; segment <= numSegments; segment++) {
+			try (InputStream input = Files.newInputStream(deltaFile(segment))) {
+				ModelDelta delta = SerializationHelper.deserializeModelDelta(input)
+						.orElseThrow(() -> new IOException("Could not read checkpoint segment in " + directory));
+				delta.applyTo(model);
+			}
+		}
+		return model;
+	}
+
+	private Path deltaFile(int segment) {
+		return directory.resolve(String.format(DELTA_FILE_FORMAT, segment));
+	}
+
+	private Properties readManifest() throws IOException {
+		Properties manifest = new Properties();
+		try (InputStream input = Files.newInputStream(directory.resolve(MANIFEST_FILE))) {
+			manifest.load(input);
+		}
+		return manifest;
+	}
+
+	private void writeManifest(int numInstances, int position, int numSegments) throws IOException {
+		Properties manifest = new Properties();
+		manifest.setProperty(KEY_NUM_INSTANCES, Integer.toString(numInstances));
+		manifest.setProperty(KEY_POSITION, Integer.toString(position));
+		manifest.setProperty(KEY_NUM_SEGMENTS, Integer.toString(numSegments));
+		SerializationHelper.writeAtomically(manifest, "EfficientNaiveBayes training checkpoint", directory.resolve(MANIFEST_FILE));
+	}
+
+	/**
+	 * The estimator entries a segment changes, collected from its instances
+	 * before it is trained. The key of an entry is the position of its estimator
+	 * (see {@link ModelDelta#position(int, int, int)}) plus one in the upper and
+	 * the symbol in the lower 32 bits.
+	 */
+	private static final class SegmentEntries {
+		private final int numClasses;
+		/** the sorted keys of the entries */
+		private final long[] keys;
+		/** per attribute: the largest value of the segment, -1 if there is none */
+		private final int[] maxValues;
+
+		private SegmentEntries(int numClasses, long[] keys, int[] maxValues) {
+			this.numClasses = numClasses;
+			this.keys = keys;
+			this.maxValues = maxValues;
+		}
+
+		private static SegmentEntries of(Instances header, int numClasses, List<Instance> segment) {
+			int numAttributes = header.numAttributes() - 1;
+			int[] maxValues = new int[numAttributes];
+			Arrays.fill(maxValues, -1);
+			long[] keys = new long[1024];
+			int size = 0;
+			for (Instance instance : segment) {
+				if (instance.classIsMissing()) {
+					continue;
+				}
+				if ((size + numAttributes + 1) > keys.length) {
+					keys = Arrays.copyOf(keys, Math.max(keys.length * 2, size + numAttributes + 1));
+				}
+				int classValue = (int) instance.classValue();
+				keys[size++] = SegmentEntries.key(ModelDelta.position(ModelDelta.CLASS_DISTRIBUTION, 0, numClasses), classValue);
+				Enumeration<Attribute> enumAtts = header.enumerateAttributes();
+				int attIndex = 0;
+				while (enumAtts.hasMoreElements()) {
+					Attribute attribute = enumAtts.nextElement();
+					if (!instance.isMissing(attribute)) {
+						int value = (int) instance.value(attribute);
+						keys[size++] = SegmentEntries.key(ModelDelta.position(attIndex, classValue, numClasses), value);
+						maxValues[attIndex] = Math.max(maxValues[attIndex], value);
+					}
+					attIndex++;
+				}
+			}
+			Arrays.sort(keys, 0, size);
+			return new SegmentEntries(numClasses, CheckpointedTraining.unique(keys, size), maxValues);
+		}
+
+		private static long key(long position, int symbol) {
+			return ((position + 1) << 32) | symbol;
+		}
+
+		private static long position(long key) {
+			return (key >>> 32) - 1;
+		}
+
+		private static int symbol(long key) {
+			return (int) key;
+		}
+
+		/**
+		 * Reads the current state of the entries. Besides the estimators of the
+		 * entries, it contains all estimators of the attributes whose number of
+		 * symbols grows with the segment.
+		 */
+		private Snapshot snapshot(EfficientNaiveBayes model) {
+			Estimator[][] distributions = model.getDistributions();
+			long[] positions = new long[keys.length];
+			int size = 0;
+			for (long key : keys) {
+				long position = SegmentEntries.position(key);
+				if ((size == 0) || (positions[size - 1] != position)) {
+					positions[size++] = position;
+				}
+			}
+			for (int attIndex = 0; attIndex < maxValues.length; attIndex++) {
+				Estimator[] estimators = distributions[attIndex];
+				if ((estimators.length > 0) && (maxValues[attIndex] >= ((SparseDiscreteEstimator) estimators[0]).getNumSymbols())) {
+					if ((size + numClasses) > positions.length) {
+						positions = Arrays.copyOf(positions, size + numClasses);
+					}
+					for (int classIndex = 0; classIndex < numClasses; classIndex++) {
+						positions[size++] = ModelDelta.position(attIndex, classIndex, numClasses);
+					}
+				}
+			}
+			Arrays.sort(positions, 0, size);
+			return new Snapshot(this, CheckpointedTraining.unique(positions, size)).read(model);
+		}
+
+		private SparseDiscreteEstimator estimator(EfficientNaiveBayes model, long position) {
+			if (position < 0) {
+				return model.getClassDistribution();
+			}
+			return (SparseDiscreteEstimator) model.getDistributions()[(int) (position / numClasses)][(int) (position % numClasses)];
+		}
+	}
+
+	/**
+	 * @return the distinct values of the sorted array prefix
+	 */
+	private static long[] unique(long[] sorted, int size) {
+		int unique = 0;
+		for (int i = 0; i < size; i++) {
+			if ((unique == 0) || (sorted[i] != sorted[unique - 1])) {
+				sorted[unique++] = sorted[i];
+			}
+		}
+		return Arrays.copyOf(sorted, unique);
+	}
+
+	/**
+	 * The state of the estimators and the counts of the entries of a segment at
+	 * one point of the training.
+	 */
+	private static final class Snapshot {
+		private final SegmentEntries entries;
+		/** the sorted positions of the estimators */
+		private final long[] positions;
+		private final double[] sums;
+		private final int[] numSymbols;
+		private final double[] priors;
+		/** per entry: the count */
+		private final double[] counts;
+
+		private Snapshot(SegmentEntries entries, long[] positions) {
+			this.entries = entries;
+			this.positions = positions;
+			sums = new double[positions.length];
+			numSymbols = new int[positions.length];
+			priors = new double[positions.length];
+			counts = new double[entries.keys.length];
+		}
+
+		private Snapshot read(EfficientNaiveBayes model) {
+			int entry = 0;
+			for (int i = 0; i < positions.length; i++) {
+				SparseDiscreteEstimator estimator = entries.estimator(model, positions[i]);
+				sums[i] = estimator.getSumOfCounts();
+				numSymbols[i] = estimator.getNumSymbols();
+				priors[i] = estimator.getPrior();
+				for (; (entry < counts.length) && (SegmentEntries.position(entries.keys[entry]) == positions[i]); entry++) {
+					counts[entry] = estimator.countOf(SegmentEntries.symbol(entries.keys[entry]));
+				}
+			}
+			return this;
+		}
+
+		/**
+		 * @return a new snapshot of the same estimators and entries
+		 */
+		private Snapshot reread(EfficientNaiveBayes model) {
+			return new Snapshot(entries, positions).read(model);
+		}
+
+		/**
+		 * @return the terms of the estimators and entries in the model fingerprint
+		 */
+		private long fingerprint() {
+			long fingerprint = 0;
+			int entry = 0;
+			for (int i = 0; i < positions.length; i++) {
+				fingerprint += ModelDelta.stateFingerprint(positions[i], sums[i], numSymbols[i]);
+				for (; (entry < counts.length) && (SegmentEntries.position(entries.keys[entry]) == positions[i]); entry++) {
+					fingerprint += ModelDelta.countFingerprint(positions[i], SegmentEntries.symbol(entries.keys[entry]), counts[entry], priors[i]);
+				}
+			}
+			return fingerprint;
+		}
+
+		private List<ModelDelta.EstimatorDelta> estimatorDeltas() {
+			List<ModelDelta.EstimatorDelta> deltas = new ArrayList<>(positions.length);
+			int entry = 0;
+			for (int i = 0; i < positions.length; i++) {
+				int from = entry;
+				while ((entry < counts.length) && (SegmentEntries.position(entries.keys[entry]) == positions[i])) {
+					entry++;
+				}
+				int[] symbols = new int[entry - from];
+				for (int j = from; j < entry; j++) {
+					symbols[j - from] = SegmentEntries.symbol(entries.keys[j]);
+				}
+				int attIndex = positions[i] < 0 ? ModelDelta.CLASS_DISTRIBUTION : (int) (positions[i] / entries.numClasses);
+				int classIndex = positions[i] < 0 ? 0 : (int) (positions[i] % entries.numClasses);
+				deltas.add(new ModelDelta.EstimatorDelta(attIndex, classIndex, numSymbols[i], sums[i], symbols, Arrays.copyOfRange(counts, from, entry)));
+			}
+			return deltas;
+		}
+	}
+}
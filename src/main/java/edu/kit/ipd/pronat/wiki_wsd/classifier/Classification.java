@@ -8,12 +8,19 @@ package edu.kit.ipd.pronat.wiki_wsd.classifier;
 public class Classification implements Comparable<Classification> {
 	private String classification;
 	private double probability;
+	private boolean degraded;
 
 	Classification(String classification, double probability) {
 		this.classification = classification;
 		this.probability = probability;
 	}
 
+	Classification(String classification, double probability, boolean degraded) {
+		this.classification = classification;
+		this.probability = probability;
+		this.degraded = degraded;
+	}
+
 	Classification(String classification) {
 		this.classification = classification;
 		probability = Integer.MIN_VALUE;
@@ -38,6 +45,14 @@ public class Classification implements Comparable<Classification> {
 		return probability;
 	}
 
+	/**
+	 * @return whether the classification was cut short by a deadline and is
+	 *         based on only part of the attributes
+	 */
+	public boolean isDegraded() {
+		return degraded;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 *
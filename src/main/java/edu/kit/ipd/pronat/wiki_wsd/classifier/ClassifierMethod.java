@@ -11,7 +11,7 @@ import weka.classifiers.bayes.NaiveBayes;
  *
  */
 public enum ClassifierMethod {
-	EfficientNaiveBayes, NaiveBayes; // J48, RandomForest;
+	EfficientNaiveBayes, NaiveBayes, HashedNaiveBayes; // J48, RandomForest;
 
 	public Classifier getClassifier() {
 		switch (this) {
@@ -19,6 +19,8 @@ public enum ClassifierMethod {
 			return new EfficientNaiveBayes();
 		case NaiveBayes:
 			return new NaiveBayes();
+		case HashedNaiveBayes:
+			return new HashedNaiveBayes();
 		default:
 			return new EfficientNaiveBayes();
 		}
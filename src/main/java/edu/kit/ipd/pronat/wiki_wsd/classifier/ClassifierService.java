@@ -1,19 +1,29 @@
 package edu.kit.ipd.pronat.wiki_wsd.classifier;
 
+import java.lang.reflect.Method;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import weka.classifiers.Classifier;
 import weka.core.Attribute;
-import weka.core.DenseInstance;
 import weka.core.Instance;
 import weka.core.Instances;
 import weka.filters.Filter;
@@ -29,12 +39,35 @@ public class ClassifierService {
 	private Classifier classifier;
 	private Filter filter;
 	private Instances header;
+	private double actualWordWeight = ACTUAL_WORD_WEIGHT;
 
 	// Filterlist for stuff, that might occur and we don't want
 	public static List<String> filterWords = Arrays.asList("NONE", ".", ",", ";", "-rrb-", "-rsb-", "-lrb-", "-lsb-", "\'\'", "\'", "--",
 			"-", ":", "``", "`", "|", "!", "?", "<", ">", "_", "−", "#", "...", "-lcb-", "-rcb-", "<math>", "\\", "</sup>", "<sup>", "+",
 			"ii", "iii", "</u>", "<u>", "</tt>", "<tt>", "=");
 	public static List<String> additionalFilterWords = Arrays.asList("'s", "%");
+	private static volatile FilterWordSet filterWordSet;
+
+	/** Default weight of the actualWord attribute */
+	public static final double ACTUAL_WORD_WEIGHT = 10d;
+
+	/** Default for the maximum number of queued and running asynchronous requests */
+	public static final int DEFAULT_MAX_PENDING_REQUESTS = 10000;
+	private static final long NO_DEADLINE = Long.MIN_VALUE;
+	private static Executor defaultAsyncExecutor;
+
+	private Executor asyncExecutor;
+	private int maxPendingRequests = DEFAULT_MAX_PENDING_REQUESTS;
+	private final AtomicInteger pendingRequests = new AtomicInteger();
+	private final LongAdder rejectedRequests = new LongAdder();
+	private final LongAdder deadlineHits = new LongAdder();
+	private final ConcurrentHashMap<String, LongAdder> outOfVocabularyValues = new ConcurrentHashMap<>();
+	private volatile Instances filterOutputFormat;
+	private volatile boolean filterOutputFormatMissing;
+	private volatile MostFrequentSenseTable mostFrequentSenseTable;
+	private final LongAdder shortcutRequests = new LongAdder();
+	private final LongAdder shortcutHits = new LongAdder();
+	private volatile boolean warmedUp;
 
 	public ClassifierService(Classifier classifier, Filter filter) {
 		this.classifier = classifier;
@@ -46,7 +79,7 @@ public class ClassifierService {
 		this.classifier = classifier;
 		this.filter = filter;
 		this.header = header;
-		this.header.setAttributeWeight(1, 10.);
+		this.header.setAttributeWeight(1, actualWordWeight);
 	}
 
 	/**
@@ -58,24 +91,15 @@ public class ClassifierService {
 	 * @return
 	 */
 	public Classification classifyInstance(Instance instance) {
-		if ((classifier == null) || (filter == null)) {
-			throw new IllegalStateException("Classifier or Filter are null!");
-		}
+		checkClassifierAndFilter();
 		Classification c = Classification.empty();
-		Instance instanceCopy = new DenseInstance(instance);
-		instanceCopy.setDataset(instance.dataset());
-		if (!instanceIsFiltered(instanceCopy)) {
-			// attributes are not nominal, they need to be filtered first!
-			try {
-				filter.input(instanceCopy);
-			} catch (Exception e) {
-				logger.warn(e.getMessage(), e.getCause());
-				return c;
-			}
-			instanceCopy = filter.output();
+		Optional<Instance> filtered = filterInstance(instance);
+		if (filtered.isEmpty()) {
+			return c;
 		}
+		Instance instanceCopy = filtered.get();
 		try {
-			instanceCopy.attribute(1).setWeight(10.);
+			instanceCopy.attribute(1).setWeight(actualWordWeight);
 			double classification = classifier.classifyInstance(instanceCopy);
 			c = new Classification(instance.classAttribute().value((int) classification));
 		} catch (Exception e) {
@@ -84,9 +108,44 @@ public class ClassifierService {
 		return c;
 	}
 
+	/**
+	 * Like {@link #classifyInstance(Instance)}, but returns the best answer
+	 * available when the time budget is about to be exceeded. With an
+	 * {@link EfficientNaiveBayes}, the attributes are scored in order of
+	 * decreasing weight until the deadline, so a cut short classification is
+	 * the leader of the partial scores: usually the most frequent sense of the
+	 * actualWord, or the class prior argmax if no attribute could be scored.
+	 * Such classifications are flagged as {@link Classification#isDegraded()
+	 * degraded}.
+	 *
+	 * @param instance
+	 *            the instance
+	 * @param timeout
+	 *            the time budget of the request
+	 * @return the classification
+	 */
+	public Classification classifyInstance(Instance instance, Duration timeout) {
+		return classifyInstanceTopK(instance, 1, ClassifierService.deadline(timeout))[0];
+	}
+
+	/**
+	 * Throws an exception if there is no classifier or no filter. A
+	 * {@link HashedNaiveBayes} does not need a filter, it hashes the string
+	 * values.
+	 */
+	private void checkClassifierAndFilter() {
+		if ((classifier == null) || ((filter == null) && !(classifier instanceof HashedNaiveBayes))) {
+			throw new IllegalStateException("Classifier or Filter are null!");
+		}
+	}
+
 	protected double[] getDistributionArray(Instance instance) throws Exception {
 		if (classifier instanceof EfficientNaiveBayes) {
 			return ((EfficientNaiveBayes) classifier).logDistributionForInstance(instance);
+		} else if (classifier instanceof ShardedModel) {
+			return ((ShardedModel) classifier).logDistributionForInstance(instance);
+		} else if (classifier instanceof HashedNaiveBayes) {
+			return ((HashedNaiveBayes) classifier).logDistributionForInstance(instance);
 		} else {
 			logger.warn("Not using the EfficientNaiveBayes, thus not using thee more precise logarithmic distribution.");
 			return classifier.distributionForInstance(instance);
@@ -101,54 +160,160 @@ public class ClassifierService {
 	 * @return
 	 */
 	public Classification[] classifyInstanceTop3(Instance instance) {
-		if ((classifier == null) || (filter == null)) {
-			throw new IllegalStateException("Classifier or Filter are null!");
-		}
-		Classification[] retArray = emptyTop3Classification();
-		Instance instanceCopy = new DenseInstance(instance);
-		instanceCopy.setDataset(instance.dataset());
-		if (!instanceIsFiltered(instanceCopy)) {
-			// attributes are not nominal, they need to be filtered first!
-			try {
-				filter.input(instanceCopy);
-			} catch (Exception e) {
-				logger.warn(e.getMessage(), e.getCause());
-				return retArray;
-			}
-			instanceCopy = filter.output();
+		return classifyInstanceTopK(instance, 3, NO_DEADLINE);
+	}
+
+	/**
+	 * Like {@link #classifyInstanceTop3(Instance)} with a time budget, see
+	 * {@link #classifyInstance(Instance, Duration)}.
+	 *
+	 * @param instance
+	 *            the instance
+	 * @param timeout
+	 *            the time budget of the request
+	 * @return the top 3 classifications
+	 */
+	public Classification[] classifyInstanceTop3(Instance instance, Duration timeout) {
+		return classifyInstanceTopK(instance, 3, ClassifierService.deadline(timeout));
+	}
+
+	private Classification[] classifyInstanceTopK(Instance instance, int k, long deadline) {
+		checkClassifierAndFilter();
+		Optional<Instance> filtered = filterInstance(instance);
+		if (filtered.isEmpty()) {
+			return emptyTopKClassification(k);
 		}
+		return classifyFilteredInstanceTopK(instance, filtered.get(), k, deadline);
+	}
+
+	private Classification[] classifyFilteredInstanceTopK(Instance instance, Instance instanceCopy, int k, long deadline) {
+		Classification[] retArray = emptyTopKClassification(k);
 		double[] distributionArray = new double[0];
+		int[] topK;
+		boolean degraded = false;
 		try {
-			instanceCopy.attribute(1).setWeight(10.);
-			distributionArray = getDistributionArray(instanceCopy);
+			instanceCopy.attribute(1).setWeight(actualWordWeight);
+			if ((deadline != NO_DEADLINE) && (classifier instanceof EfficientNaiveBayes)) {
+				EfficientNaiveBayes.PartialDistribution partial = ((EfficientNaiveBayes) classifier).logDistributionForInstance(instanceCopy, deadline);
+				distributionArray = partial.getLogDistribution();
+				degraded = !partial.isComplete();
+				if (degraded) {
+					deadlineHits.increment();
+				}
+				topK = ScoringKernel.topK(distributionArray, k, Integer.MIN_VALUE);
+			} else if (classifier instanceof EfficientNaiveBayes) {
+				// large models score and rank the class ranges in parallel
+				distributionArray = new double[((EfficientNaiveBayes) classifier).getNumClasses()];
+				topK = ((EfficientNaiveBayes) classifier).logDistributionTopK(instanceCopy, distributionArray, k, Integer.MIN_VALUE);
+			} else {
+				distributionArray = getDistributionArray(instanceCopy);
+				topK = ScoringKernel.topK(distributionArray, k, Integer.MIN_VALUE);
+			}
 		} catch (Exception e) {
 			logger.warn(e.getMessage(), e.getCause());
-			return emptyTop3Classification();
-		}
-		// get the top 3
-		for (int i = 0; i < distributionArray.length; i++) {
-			Classification c = new Classification(instance.classAttribute().value(i), distributionArray[i]);
-			if (c.compareTo(retArray[0]) > 0) {
-				retArray[2] = retArray[1];
-				retArray[1] = retArray[0];
-				retArray[0] = c;
-			} else if (c.compareTo(retArray[1]) > 0) {
-				retArray[2] = retArray[1];
-				retArray[1] = c;
-			} else if (c.compareTo(retArray[2]) > 0) {
-				retArray[2] = c;
-			}
+			return emptyTopKClassification(k);
+		}
+		for (int i = 0; i < topK.length; i++) {
+			retArray[i] = new Classification(instance.classAttribute().value(topK[i]), distributionArray[topK[i]], degraded);
 		}
 		return retArray;
 	}
 
 	public Classification classifyInstanceWithLemma(Instance instance, String lemma) {
-		// disambiguate
-		Classification clazz;
-		Classification[] top3clazz = classifyInstanceTop3(instance);
-		clazz = top3clazz[0];
+		return classifyInstanceWithLemma(instance, lemma, NO_DEADLINE);
+	}
+
+	/**
+	 * Like {@link #classifyInstanceWithLemma(Instance, String)} with a time
+	 * budget, see {@link #classifyInstance(Instance, Duration)}.
+	 *
+	 * @param instance
+	 *            the instance
+	 * @param lemma
+	 *            the lemma
+	 * @param timeout
+	 *            the time budget of the request
+	 * @return the classification
+	 */
+	public Classification classifyInstanceWithLemma(Instance instance, String lemma, Duration timeout) {
+		return classifyInstanceWithLemma(instance, lemma, ClassifierService.deadline(timeout));
+	}
+
+	private Classification classifyInstanceWithLemma(Instance instance, String lemma, long deadline) {
+		checkClassifierAndFilter();
+		Optional<Instance> filtered = filterInstance(instance);
+		if (filtered.isEmpty()) {
+			return ClassifierService.disambiguate(emptyTopKClassification(3), lemma);
+		}
+		Instance instanceCopy = filtered.get();
+		MostFrequentSenseTable table = mostFrequentSenseTable;
+		// an outdated table is skipped until it is rebuilt
+		if ((table != null) && table.isCurrent((EfficientNaiveBayes) classifier)) {
+			shortcutRequests.increment();
+			instanceCopy.attribute(1).setWeight(actualWordWeight);
+			int sense = table.lookup(instanceCopy);
+			// disambiguate would keep the first sense if it contains the lemma
+			if ((sense >= 0) && instance.classAttribute().value(sense).toLowerCase().contains(lemma)) {
+				shortcutHits.increment();
+				return new Classification(instance.classAttribute().value(sense), ((EfficientNaiveBayes) classifier).logScore(instanceCopy, sense));
+			}
+		}
+		return ClassifierService.disambiguate(classifyFilteredInstanceTopK(instance, instanceCopy, 3, deadline), lemma);
+	}
+
+	/**
+	 * Builds the table of the actualWords whose most frequent sense wins in every
+	 * context, so {@link #classifyInstanceWithLemma(Instance, String)} answers
+	 * their requests without scoring if the sense contains the lemma. Requires an
+	 * {@link EfficientNaiveBayes}. The table assumes the current actualWord weight
+	 * and the attribute weights of the training header, it is not used for
+	 * instances with other weights. After the model has been updated, the table
+	 * is not used until it is rebuilt.
+	 *
+	 * @return the number of actualWords with a dominant sense
+	 */
+	public int buildMostFrequentSenseTable() {
+		if (!(classifier instanceof EfficientNaiveBayes)) {
+			throw new IllegalStateException("The most frequent sense table requires an EfficientNaiveBayes");
+		}
+		MostFrequentSenseTable table = MostFrequentSenseTable.build((EfficientNaiveBayes) classifier, actualWordWeight);
+		mostFrequentSenseTable = table;
+		ClassifierService.logger.info("Built most frequent sense table with {} dominant actualWords", table.size());
+		return table.size();
+	}
+
+	/**
+	 * Removes the most frequent sense table.
+	 */
+	public void clearMostFrequentSenseTable() {
+		mostFrequentSenseTable = null;
+	}
+
+	/**
+	 * @return the share of requests with lemma that were answered from the most
+	 *         frequent sense table, 0 if there were none
+	 */
+	public double getShortcutHitRate() {
+		long requests = shortcutRequests.sum();
+		return requests == 0 ? 0 : shortcutHits.sum() / (double) requests;
+	}
+
+	/**
+	 * Chooses the classification of the top 3 that contains the lemma and whose
+	 * score is similar to the best one, the best one if there is none. Also used
+	 * by the {@link AttributeWeightTuner}.
+	 *
+	 * @param top3clazz
+	 *            the top 3 classifications, best first
+	 * @param lemma
+	 *            the lemma
+	 * @return the chosen classification
+	 */
+	static Classification disambiguate(Classification[] top3clazz, String lemma) {
+		Classification clazz = top3clazz[0];
 		for (int i = 2; i >= 0; i--) {
-			if (top3clazz[i].getClassificationString().toLowerCase().contains(lemma) && distributionIsSimilar(top3clazz[0], top3clazz[i])) {
+			if (top3clazz[i].getClassificationString().toLowerCase().contains(lemma)
+					&& ClassifierService.distributionIsSimilar(top3clazz[0], top3clazz[i])) {
 				clazz = top3clazz[i];
 			}
 		}
@@ -160,7 +325,7 @@ public class ClassifierService {
 		return clazz;
 	}
 
-	private boolean distributionIsSimilar(Classification main, Classification other) {
+	private static boolean distributionIsSimilar(Classification main, Classification other) {
 		double threshold = 0.75;
 		double relation = 0;
 		if (other.getProbability() < 0) {
@@ -172,6 +337,116 @@ public class ClassifierService {
 		}
 	}
 
+	/**
+	 * Copies the instance and runs it through the filter if its attributes are
+	 * not nominal yet and there is a filter. Weka filters are not thread-safe, so concurrent callers
+	 * are serialized on it unless it is a {@link SharedVocabularyFilter}.
+	 *
+	 * Values the filter does not know (out of vocabulary) are set to missing
+	 * beforehand, so they are skipped when scoring. They are only counted, see
+	 * {@link #getOutOfVocabularyCounts()}, as they are common in noisy text.
+	 *
+	 * @param instance
+	 *            the instance to filter
+	 * @return the filtered copy or an empty Optional if filtering failed
+	 */
+	private Optional<Instance> filterInstance(Instance instance) {
+		// keeps sparse instances sparse
+		Instance instanceCopy = (Instance) instance.copy();
+		instanceCopy.setDataset(instance.dataset());
+		if ((filter == null) || instanceIsFiltered(instanceCopy)) {
+			return Optional.of(instanceCopy);
+		}
+		if (filter instanceof SharedVocabularyFilter) {
+			// encodes without the filter queue, no need to synchronize
+			return Optional.of(((SharedVocabularyFilter) filter).encode(instanceCopy,
+					attIndex -> countOutOfVocabulary(instanceCopy.attribute(attIndex))));
+		}
+		removeOutOfVocabularyValues(instanceCopy);
+		// attributes are not nominal, they need to be filtered first!
+		synchronized (filter) {
+			try {
+				filter.input(instanceCopy);
+			} catch (Exception e) {
+				logger.warn(e.getMessage(), e.getCause());
+				return Optional.empty();
+			}
+			return Optional.of(filter.output());
+		}
+	}
+
+	/**
+	 * Sets the string values that are not values of the nominal attributes of
+	 * the filter output to missing.
+	 */
+	private void removeOutOfVocabularyValues(Instance instance) {
+		Instances outputFormat = getFilterOutputFormat();
+		if (outputFormat == null) {
+			return;
+		}
+		// only the stored values of sparse instances
+		for (int p = 0; p < instance.numValues(); p++) {
+			int i = instance.index(p);
+			Attribute attribute = instance.attributeSparse(p);
+			if (!attribute.isString() || instance.isMissingSparse(p) || (i >= outputFormat.numAttributes())) {
+				continue;
+			}
+			Attribute outputAttribute = outputFormat.attribute(i);
+			if (outputAttribute.isNominal() && (outputAttribute.indexOfValue(instance.stringValue(i)) < 0)) {
+				instance.setMissing(i);
+				countOutOfVocabulary(attribute);
+			}
+		}
+	}
+
+	/**
+	 * Caches the output format, {@link Filter#getOutputFormat()} returns a new
+	 * copy on every call. If the filter has no output format, that is cached as
+	 * well, so the filter is not asked again on every request.
+	 */
+	private Instances getFilterOutputFormat() {
+		Instances outputFormat = filterOutputFormat;
+		if ((outputFormat == null) && !filterOutputFormatMissing) {
+			synchronized (filter) {
+				try {
+					outputFormat = filter.getOutputFormat();
+				} catch (RuntimeException e) {
+					// no output format, leave the unknown values to the filter
+					filterOutputFormatMissing = true;
+					return null;
+				}
+			}
+			filterOutputFormat = outputFormat;
+		}
+		return outputFormat;
+	}
+
+	private void countOutOfVocabulary(Attribute attribute) {
+		outOfVocabularyValues.computeIfAbsent(attribute.name(), name -> new LongAdder()).increment();
+	}
+
+	/**
+	 * @return the number of unknown (out of vocabulary) values per attribute
+	 *         name that have been treated as missing so far
+	 */
+	public Map<String, Long> getOutOfVocabularyCounts() {
+		Map<String, Long> counts = new TreeMap<>();
+		outOfVocabularyValues.forEach((name, count) -> counts.put(name, count.sum()));
+		return counts;
+	}
+
+	/**
+	 * @return the total number of unknown (out of vocabulary) values that have
+	 *         been treated as missing so far
+	 */
+	public long getOutOfVocabularyValues() {
+		long sum = 0;
+		for (LongAdder count : outOfVocabularyValues.values()) {
+			sum += count.sum();
+		}
+		return sum;
+	}
+
 	private boolean instanceIsFiltered(Instance instance) {
 		for (int i = 0; i < instance.numAttributes(); i++) {
 			if (!instance.attribute(i).isNominal()) {
@@ -181,8 +456,221 @@ public class ClassifierService {
 		return true;
 	}
 
-	private Classification[] emptyTop3Classification() {
-		return new Classification[] { Classification.empty(), Classification.empty(), Classification.empty() };
+	private Classification[] emptyTopKClassification(int k) {
+		Classification[] classifications = new Classification[k];
+		for (int i = 0; i < k; i++) {
+			classifications[i] = Classification.empty();
+		}
+		return classifications;
+	}
+
+	private static long deadline(Duration timeout) {
+		long deadline = System.nanoTime() + timeout.toNanos();
+		// NO_DEADLINE is reserved
+		return deadline == NO_DEADLINE ? deadline + 1 : deadline;
+	}
+
+	/**
+	 * Asynchronous version of {@link #classifyInstance(Instance)}. If the maximum
+	 * number of pending requests is reached, the returned future fails with a
+	 * {@link RejectedExecutionException}.
+	 *
+	 * @param instance
+	 *            the instance
+	 * @return future of the classification
+	 */
+	public CompletableFuture<Classification> classifyInstanceAsync(Instance instance) {
+		return submit(() -> classifyInstance(instance));
+	}
+
+	/**
+	 * Asynchronous version of {@link #classifyInstanceWithLemma(Instance, String)}.
+	 * If the maximum number of pending requests is reached, the returned future
+	 * fails with a {@link RejectedExecutionException}.
+	 *
+	 * @param instance
+	 *            the instance
+	 * @param lemma
+	 *            the lemma
+	 * @return future of the classification
+	 */
+	public CompletableFuture<Classification> classifyInstanceWithLemmaAsync(Instance instance, String lemma) {
+		return submit(() -> classifyInstanceWithLemma(instance, lemma));
+	}
+
+	/**
+	 * Asynchronous version of
+	 * {@link #classifyInstanceWithLemma(Instance, String, int)}. If the maximum
+	 * number of pending requests is reached, the returned future fails with a
+	 * {@link RejectedExecutionException}.
+	 *
+	 * @param instance
+	 *            the instance
+	 * @param lemma
+	 *            the lemma
+	 * @param maxHypothesis
+	 *            the max amount of classifications
+	 * @return future of the sorted list (max first) of classifications
+	 */
+	public CompletableFuture<List<Classification>> classifyInstanceWithLemmaAsync(Instance instance, String lemma, int maxHypothesis) {
+		return submit(() -> classifyInstanceWithLemma(instance, lemma, maxHypothesis));
+	}
+
+	private <T> CompletableFuture<T> submit(Supplier<T> task) {
+		if (pendingRequests.incrementAndGet() > maxPendingRequests) {
+			pendingRequests.decrementAndGet();
+			rejectedRequests.increment();
+			return CompletableFuture.failedFuture(new RejectedExecutionException("Too many pending classification requests"));
+		}
+		try {
+			return CompletableFuture.supplyAsync(() -> {
+				try {
+					return task.get();
+				} finally {
+					pendingRequests.decrementAndGet();
+				}
+			}, getAsyncExecutor());
+		} catch (RejectedExecutionException e) {
+			pendingRequests.decrementAndGet();
+			rejectedRequests.increment();
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+
+	private Executor getAsyncExecutor() {
+		if (asyncExecutor == null) {
+			return ClassifierService.getDefaultAsyncExecutor();
+		}
+		return asyncExecutor;
+	}
+
+	/**
+	 * The default executor uses virtual threads if the runtime supports them and
+	 * a cached pool of daemon threads otherwise. The number of concurrent tasks
+	 * is bounded by the admission control of each service.
+	 */
+	private static synchronized Executor getDefaultAsyncExecutor() {
+		if (defaultAsyncExecutor == null) {
+			try {
+				Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+				defaultAsyncExecutor = (Executor) factory.invoke(null);
+			} catch (ReflectiveOperationException e) {
+				defaultAsyncExecutor = Executors.newCachedThreadPool(runnable -> {
+					Thread thread = new Thread(runnable, "ClassifierService-async");
+					thread.setDaemon(true);
+					return thread;
+				});
+			}
+		}
+		return defaultAsyncExecutor;
+	}
+
+	/**
+	 * Sets the executor that runs asynchronous requests. If null, a shared
+	 * executor based on virtual threads is used.
+	 *
+	 * @param asyncExecutor
+	 *            the executor
+	 */
+	public void setAsyncExecutor(Executor asyncExecutor) {
+		this.asyncExecutor = asyncExecutor;
+	}
+
+	/**
+	 * Sets the maximum number of asynchronous requests that may be queued or
+	 * running at the same time. Further requests are rejected.
+	 *
+	 * @param maxPendingRequests
+	 *            the maximum number of pending requests
+	 */
+	public void setMaxPendingRequests(int maxPendingRequests) {
+		if (maxPendingRequests <= 0) {
+			throw new IllegalArgumentException("Maximum number of pending requests has to be positive!");
+		}
+		this.maxPendingRequests = maxPendingRequests;
+	}
+
+	/**
+	 * @return the maximum number of pending asynchronous requests
+	 */
+	public int getMaxPendingRequests() {
+		return maxPendingRequests;
+	}
+
+	/**
+	 * @return the number of asynchronous requests that are currently queued or
+	 *         running
+	 */
+	public int getPendingRequests() {
+		return pendingRequests.get();
+	}
+
+	/**
+	 * @return the number of asynchronous requests that were rejected so far
+	 */
+	public long getRejectedRequests() {
+		return rejectedRequests.sum();
+	}
+
+	/**
+	 * @return the number of classifications that were cut short by their
+	 *         deadline so far
+	 */
+	public long getDeadlineHits() {
+		return deadlineHits.sum();
+	}
+
+	/**
+	 * Warms up the service after loading, so the first requests are not slow:
+	 * touches all counts of the model once and runs classifications through all
+	 * classification methods until their mean latency is stable, at most the
+	 * given number. Uses the sample instances if there are some, else random
+	 * instances of the model's attributes (only for {@link EfficientNaiveBayes}).
+	 *
+	 * @param samples
+	 *            instances to classify, may be empty
+	 * @param maxClassifications
+	 *            the maximum number of classifications
+	 * @return the report of the warm-up
+	 */
+	public WarmUpReport warmUp(List<Instance> samples, int maxClassifications) {
+		WarmUpReport report = WarmUp.run(this, samples, maxClassifications);
+		logger.info("Warm-up finished: {}", report);
+		warmedUp |= report.isSteadyState();
+		return report;
+	}
+
+	/**
+	 * @return whether a warm-up reached a steady latency, e.g. for readiness
+	 *         probes
+	 */
+	public boolean isWarmedUp() {
+		return warmedUp;
+	}
+
+	Classifier getClassifier() {
+		return classifier;
+	}
+
+	/**
+	 * Sets the weight of the actualWord attribute that is used for
+	 * classification, e.g. one found with {@link AttributeWeightTuner}.
+	 *
+	 * @param actualWordWeight
+	 *            the weight
+	 */
+	public void setActualWordWeight(double actualWordWeight) {
+		this.actualWordWeight = actualWordWeight;
+		if (header != null) {
+			header.setAttributeWeight(1, actualWordWeight);
+		}
+	}
+
+	/**
+	 * @return the weight of the actualWord attribute
+	 */
+	public double getActualWordWeight() {
+		return actualWordWeight;
 	}
 
 	/**
@@ -206,7 +694,7 @@ public class ClassifierService {
 
 		// Declare the feature vector
 		Attribute actualWordAttribute = new Attribute("actualWord", true);
-		actualWordAttribute.setWeight(10d);
+		actualWordAttribute.setWeight(ACTUAL_WORD_WEIGHT);
 		attributes.add(actualWordAttribute);
 		attributes.add(new Attribute("actualWordPOS", true));
 		attributes.add(new Attribute("word-3", true));
@@ -229,6 +717,47 @@ public class ClassifierService {
 		return attributes;
 	}
 
+	/**
+	 * Checks with a hash lookup whether the word is one of the
+	 * {@link #filterWords} or {@link #additionalFilterWords}. The set is derived
+	 * again when the lists have been replaced or changed.
+	 *
+	 * @param word
+	 *            the word
+	 * @return whether the word is a filter word
+	 */
+	public static boolean isFilterWord(String word) {
+		List<String> words = filterWords;
+		List<String> additionalWords = additionalFilterWords;
+		FilterWordSet set = filterWordSet;
+		if ((set == null) || !set.isDerivedFrom(words, additionalWords)) {
+			set = new FilterWordSet(words, additionalWords);
+			filterWordSet = set;
+		}
+		return set.words.contains(word);
+	}
+
+	/**
+	 * The filter words as a set, with copies of the lists it was derived from.
+	 */
+	private static final class FilterWordSet {
+		private final List<String> filterWords;
+		private final List<String> additionalFilterWords;
+		private final Set<String> words = new HashSet<>();
+
+		private FilterWordSet(List<String> filterWords, List<String> additionalFilterWords) {
+			this.filterWords = new ArrayList<>(filterWords);
+			this.additionalFilterWords = new ArrayList<>(additionalFilterWords);
+			words.addAll(filterWords);
+			words.addAll(additionalFilterWords);
+		}
+
+		private boolean isDerivedFrom(List<String> filterWords, List<String> additionalFilterWords) {
+			// the elements are usually the same strings, so this only compares references
+			return this.filterWords.equals(filterWords) && this.additionalFilterWords.equals(additionalFilterWords);
+		}
+	}
+
 	/**
 	 * Creates the header for instances with name, attributes and set class index
 	 *
@@ -240,7 +769,7 @@ public class ClassifierService {
 		// index
 		Instances header = new Instances("WordSenseDisambiguation", attributes, 0);
 		header.setClassIndex(0);
-		header.setAttributeWeight(1, 10d);
+		header.setAttributeWeight(1, ACTUAL_WORD_WEIGHT);
 		return header;
 	}
 
@@ -255,7 +784,7 @@ public class ClassifierService {
 	public static Instances getEmptyInstancesHeader(ArrayList<Attribute> attributes) {
 		Instances header = new Instances("WordSenseDisambiguation", attributes, 0);
 		header.setClassIndex(0);
-		header.setAttributeWeight(1, 10d);
+		header.setAttributeWeight(1, ACTUAL_WORD_WEIGHT);
 		return header;
 	}
 
@@ -278,7 +807,7 @@ public class ClassifierService {
 	@Override
 	public String toString() {
 		String classifierString = classifier != null ? classifier.getClass().getName() : "null";
-		String filterString = classifier != null ? filter.getClass().getName() : "null";
+		String filterString = filter != null ? filter.getClass().getName() : "null";
 		return "ClassifierService [classifier=" + classifierString + ", filter=" + filterString + "]";
 	}
 
@@ -296,43 +825,34 @@ public class ClassifierService {
 	 * @author Dominik Fuchss
 	 */
 	public List<Classification> classifyInstanceWithLemma(Instance instance, String lemma, int maxHypothesis) {
-		if ((classifier == null) || (filter == null)) {
-			throw new IllegalStateException("Classifier or Filter are null!");
-		}
+		checkClassifierAndFilter();
 
-		Instance instanceCopy = new DenseInstance(instance);
-		instanceCopy.setDataset(instance.dataset());
-		if (!instanceIsFiltered(instanceCopy)) {
-			// attributes are not nominal, they need to be filtered first!
-			try {
-				filter.input(instanceCopy);
-			} catch (Exception e) {
-				ClassifierService.logger.warn(e.getMessage(), e.getCause());
-				return List.of(Classification.empty());
-			}
-			instanceCopy = filter.output();
+		Optional<Instance> filtered = filterInstance(instance);
+		if (filtered.isEmpty()) {
+			return List.of(Classification.empty());
 		}
+		Instance instanceCopy = filtered.get();
 		double[] distributionArray = new double[0];
+		int[] topX;
 		try {
-			instanceCopy.attribute(1).setWeight(10.);
-			distributionArray = getDistributionArray(instanceCopy);
+			instanceCopy.attribute(1).setWeight(actualWordWeight);
+			if (classifier instanceof EfficientNaiveBayes) {
+				// large models score and rank the class ranges in parallel
+				distributionArray = new double[((EfficientNaiveBayes) classifier).getNumClasses()];
+				topX = ((EfficientNaiveBayes) classifier).logDistributionTopK(instanceCopy, distributionArray, maxHypothesis, Double.NEGATIVE_INFINITY);
+			} else {
+				distributionArray = getDistributionArray(instanceCopy);
+				topX = ScoringKernel.topK(distributionArray, maxHypothesis, Double.NEGATIVE_INFINITY);
+			}
 		} catch (Exception e) {
 			ClassifierService.logger.warn(e.getMessage(), e.getCause());
 			return List.of(Classification.empty());
 		}
 
-		// Sort upside down (max first)
-		SortedSet<Classification> classifications = new TreeSet<>((a, b) -> -a.compareTo(b));
-		// get the top 3
-		for (int i = 0; i < distributionArray.length; i++) {
-			Classification c = new Classification(instance.classAttribute().value(i), distributionArray[i]);
-			classifications.add(c);
-		}
-
+		// get the top x (max first)
 		List<Classification> result = new ArrayList<>();
-		Iterator<Classification> iter = classifications.iterator();
-		while (iter.hasNext() && result.size() < maxHypothesis) {
-			result.add(iter.next());
+		for (int i : topX) {
+			result.add(new Classification(instance.classAttribute().value(i), distributionArray[i]));
 		}
 		return result;
 	}
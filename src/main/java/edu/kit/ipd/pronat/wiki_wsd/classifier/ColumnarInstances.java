@@ -0,0 +1,372 @@
+package edu.kit.ipd.pronat.wiki_wsd.classifier;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.IntStream;
+
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Training data with nominal attributes stored column by column. Each
+ * attribute is an int column of value indices (-1 for missing values), the
+ * instance weights are a float column. Compared to {@link Instances} of
+ * {@link weka.core.DenseInstance}s this needs 4 bytes instead of 8 bytes plus
+ * object overhead per value, and a column can be scanned without touching the
+ * other attributes.
+ *
+ * The columns are either held on the heap or memory-mapped from a file
+ * written by {@link #write(Path)}. The file consists of (little endian):
+ * <ul>
+ * <li>magic number, format version, number of instances, number of attributes
+ * and length of the header (int each)</li>
+ * <li>the header, an empty {@link Instances} in Java serialization</li>
+ * <li>padding to a multiple of 8 bytes</li>
+ * <li>one int column per attribute</li>
+ * <li>the float weight column</li>
+ * </ul>
+ *
+ * A memory mapping is limited to 2 GB, so the columns are mapped in windows
+ * of {@link #WINDOW_SIZE} values. Columns on the heap are split the same way.
+ *
+ * Instances are immutable and can be read by multiple threads.
+ *
+ * Usage: ColumnarInstances input output [classIndex]
+ *
+ * converts an ARFF file (ending .arff, class index defaults to 0) or
+ * {@link Instances} serialized by
+ * {@link SerializationHelper#serializeInstances(Instances, String)}.
+ *
+ * @author Jan Keim
+ * @author Sebastian Weigelt
+ *
+ */
+public class ColumnarInstances {
+	private static final int MAGIC = 0x57534443;
+	private static final int VERSION = 1;
+	private static final int PREAMBLE_SIZE = 5 * Integer.BYTES;
+	private static final int WRITE_BUFFER_SIZE = 1 << 20;
+	private static final int WINDOW_SHIFT = 28;
+	/** number of values per window of a column, 1 GB of ints or floats */
+	public static final int WINDOW_SIZE = 1 << WINDOW_SHIFT;
+	private static final int WINDOW_MASK = WINDOW_SIZE - 1;
+
+	private final Instances header;
+	private final int numInstances;
+	private final IntColumn[] columns;
+	private final FloatColumn weights;
+
+	private ColumnarInstances(Instances header, int numInstances, IntColumn[] columns, FloatColumn weights) {
+		this.header = header;
+		this.numInstances = numInstances;
+		this.columns = columns;
+		this.weights = weights;
+	}
+
+	/**
+	 * Converts the instances. All attributes have to be nominal.
+	 *
+	 * @param instances
+	 *            the instances
+	 * @return the instances on the heap in columnar form
+	 * @throws IllegalArgumentException
+	 *             if an attribute is not nominal
+	 */
+	public static ColumnarInstances fromInstances(Instances instances) {
+		for (int att = 0; att < instances.numAttributes(); att++) {
+			if (instances.attribute(att).type() != Attribute.NOMINAL) {
+				throw new IllegalArgumentException("Attribute " + instances.attribute(att).name() + " is not nominal");
+			}
+		}
+		int numInstances = instances.size();
+		int[][] columns = new int[instances.numAttributes()][numInstances];
+		float[] weights = new float[numInstances];
+		IntStream.range(0, numInstances).parallel().forEach(i -> {
+			Instance instance = instances.get(i);
+			for (int att = 0; att < columns.length; att++) {
+				columns[att][i] = instance.isMissing(att) ? -1 : (int) instance.value(att);
+			}
+			weights[i] = (float) instance.weight();
+		});
+
+		IntColumn[] intColumns = new IntColumn[columns.length];
+		for (int att = 0; att < columns.length; att++) {
+			IntBuffer[] windows = new IntBuffer[ColumnarInstances.numWindows(numInstances)];
+			for (int w = 0; w < windows.length; w++) {
+				windows[w] = IntBuffer.wrap(columns[att], w * WINDOW_SIZE, ColumnarInstances.windowLength(numInstances, w)).slice();
+			}
+			intColumns[att] = new IntColumn(windows);
+		}
+		FloatBuffer[] weightWindows = new FloatBuffer[ColumnarInstances.numWindows(numInstances)];
+		for (int w = 0; w < weightWindows.length; w++) {
+			weightWindows[w] = FloatBuffer.wrap(weights, w * WINDOW_SIZE, ColumnarInstances.windowLength(numInstances, w)).slice();
+		}
+		return new ColumnarInstances(new Instances(instances, 0), numInstances, intColumns, new FloatColumn(weightWindows));
+	}
+
+	/**
+	 * Reads an ARFF file and converts it, see {@link #fromInstances(Instances)}.
+	 *
+	 * @param arffFile
+	 *            the ARFF file
+	 * @param classIndex
+	 *            the index of the class attribute
+	 * @return the instances on the heap in columnar form
+	 * @throws IOException
+	 *             if the file could not be read
+	 */
+	public static ColumnarInstances fromArff(Path arffFile, int classIndex) throws IOException {
+		try (BufferedReader reader = Files.newBufferedReader(arffFile)) {
+			Instances instances = new Instances(reader);
+			instances.setClassIndex(classIndex);
+			return ColumnarInstances.fromInstances(instances);
+		}
+	}
+
+	/**
+	 * Memory-maps a file written by {@link #write(Path)}. The columns are mapped
+	 * in windows and paged in by the operating system when they are read.
+	 *
+	 * @param file
+	 *            the file
+	 * @return the memory-mapped instances
+	 * @throws IOException
+	 *             if the file could not be read or has the wrong format
+	 */
+	public static ColumnarInstances map(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer preamble = ByteBuffer.allocate(PREAMBLE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			ColumnarInstances.readFully(channel, preamble, 0);
+			preamble.flip();
+			if ((preamble.getInt() != MAGIC) || (preamble.getInt() != VERSION)) {
+				throw new IOException(file + " is not a columnar instances file of version " + VERSION);
+			}
+			int numInstances = preamble.getInt();
+			int numAttributes = preamble.getInt();
+			int headerLength = preamble.getInt();
+
+			ByteBuffer headerBytes = ByteBuffer.allocate(headerLength);
+			ColumnarInstances.readFully(channel, headerBytes, PREAMBLE_SIZE);
+			Instances header;
+			try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(headerBytes.array()))) {
+				header = (Instances) in.readObject();
+			} catch (ClassNotFoundException e) {
+				throw new IOException("Could not read header of " + file, e);
+			}
+
+			long offset = ColumnarInstances.columnsOffset(headerLength);
+			int numWindows = ColumnarInstances.numWindows(numInstances);
+			IntColumn[] columns = new IntColumn[numAttributes];
+			for (int att = 0; att < numAttributes; att++) {
+				IntBuffer[] windows = new IntBuffer[numWindows];
+				for (int w = 0; w < numWindows; w++) {
+					windows[w] = ColumnarInstances.mapWindow(channel, offset, numInstances, w, Integer.BYTES).asIntBuffer();
+				}
+				columns[att] = new IntColumn(windows);
+				offset += (long) numInstances * Integer.BYTES;
+			}
+			FloatBuffer[] weights = new FloatBuffer[numWindows];
+			for (int w = 0; w < numWindows; w++) {
+				weights[w] = ColumnarInstances.mapWindow(channel, offset, numInstances, w, Float.BYTES).asFloatBuffer();
+			}
+			return new ColumnarInstances(header, numInstances, columns, new FloatColumn(weights));
+		}
+	}
+
+	private static ByteBuffer mapWindow(FileChannel channel, long columnOffset, int numInstances, int window, int valueSize) throws IOException {
+		long position = columnOffset + ((long) window * WINDOW_SIZE * valueSize);
+		long size = (long) ColumnarInstances.windowLength(numInstances, window) * valueSize;
+		return channel.map(FileChannel.MapMode.READ_ONLY, position, size).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private static int numWindows(int numInstances) {
+		return (int) ((((long) numInstances + WINDOW_SIZE) - 1) / WINDOW_SIZE);
+	}
+
+	private static int windowLength(int numInstances, int window) {
+		return Math.min(WINDOW_SIZE, numInstances - (window * WINDOW_SIZE));
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("Unexpected end of file");
+			}
+		}
+	}
+
+	private static long columnsOffset(int headerLength) {
+		long end = (long) PREAMBLE_SIZE + headerLength;
+		return (end + 7) & ~7L;
+	}
+
+	/**
+	 * Writes the instances to a file that can be memory-mapped with
+	 * {@link #map(Path)}.
+	 *
+	 * @param file
+	 *            the file
+	 * @throws IOException
+	 *             if the file could not be written
+	 */
+	public void write(Path file) throws IOException {
+		ByteArrayOutputStream headerStream = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(headerStream)) {
+			out.writeObject(header);
+		}
+		byte[] headerBytes = headerStream.toByteArray();
+
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			buffer.putInt(MAGIC).putInt(VERSION).putInt(numInstances).putInt(columns.length).putInt(headerBytes.length);
+			buffer.flip();
+			ColumnarInstances.writeFully(channel, buffer);
+			ColumnarInstances.writeFully(channel, ByteBuffer.wrap(headerBytes));
+			ColumnarInstances.writeFully(channel, ByteBuffer.allocate((int) (ColumnarInstances.columnsOffset(headerBytes.length) - channel.position())));
+
+			buffer.clear();
+			for (IntColumn column : columns) {
+				for (int i = 0; i < numInstances; i++) {
+					if (buffer.remaining() < Integer.BYTES) {
+						buffer.flip();
+						ColumnarInstances.writeFully(channel, buffer);
+						buffer.clear();
+					}
+					buffer.putInt(column.get(i));
+				}
+			}
+			for (int i = 0; i < numInstances; i++) {
+				if (buffer.remaining() < Float.BYTES) {
+					buffer.flip();
+					ColumnarInstances.writeFully(channel, buffer);
+					buffer.clear();
+				}
+				buffer.putFloat(weights.get(i));
+			}
+			buffer.flip();
+			ColumnarInstances.writeFully(channel, buffer);
+		}
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	/**
+	 * @return the header, without instances
+	 */
+	public Instances getHeader() {
+		return header;
+	}
+
+	/**
+	 * @return the number of instances
+	 */
+	public int numInstances() {
+		return numInstances;
+	}
+
+	/**
+	 * @return the number of attributes, including the class
+	 */
+	public int numAttributes() {
+		return columns.length;
+	}
+
+	/**
+	 * Returns the column of an attribute.
+	 *
+	 * @param attIndex
+	 *            the index of the attribute
+	 * @return the value indices of the attribute, -1 for missing values
+	 */
+	public IntColumn column(int attIndex) {
+		return columns[attIndex];
+	}
+
+	/**
+	 * Returns the weight column.
+	 *
+	 * @return the instance weights
+	 */
+	public FloatColumn weights() {
+		return weights;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: ColumnarInstances input output [classIndex]");
+			return;
+		}
+		int classIndex = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+		ColumnarInstances columnar;
+		if (args[0].endsWith(".arff")) {
+			columnar = ColumnarInstances.fromArff(Paths.get(args[0]), classIndex);
+		} else {
+			try (InputStream input = new FileInputStream(args[0])) {
+				columnar = ColumnarInstances.fromInstances(SerializationHelper.deserializeInstances(input).orElseThrow());
+			}
+		}
+		columnar.write(Paths.get(args[1]));
+		System.out.println("Wrote " + columnar.numInstances() + " instances with " + columnar.numAttributes() + " attributes to " + args[1]);
+	}
+
+	/**
+	 * A column of int values, split into windows of {@link #WINDOW_SIZE} values.
+	 */
+	public static final class IntColumn {
+		private final IntBuffer[] windows;
+
+		private IntColumn(IntBuffer[] windows) {
+			this.windows = windows;
+		}
+
+		/**
+		 * @param index
+		 *            the index of the instance
+		 * @return the value of the instance
+		 */
+		public int get(int index) {
+			return windows[index >>> WINDOW_SHIFT].get(index & WINDOW_MASK);
+		}
+	}
+
+	/**
+	 * A column of float values, split into windows of {@link #WINDOW_SIZE}
+	 * values.
+	 */
+	public static final class FloatColumn {
+		private final FloatBuffer[] windows;
+
+		private FloatColumn(FloatBuffer[] windows) {
+			this.windows = windows;
+		}
+
+		/**
+		 * @param index
+		 *            the index of the instance
+		 * @return the value of the instance
+		 */
+		public float get(int index) {
+			return windows[index >>> WINDOW_SHIFT].get(index & WINDOW_MASK);
+		}
+	}
+}
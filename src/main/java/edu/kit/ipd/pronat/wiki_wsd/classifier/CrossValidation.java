@@ -0,0 +1,99 @@
+package edu.kit.ipd.pronat.wiki_wsd.classifier;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * k-fold cross-validation for {@link EfficientNaiveBayes} that trains only
+ * once. As the counts of Naive Bayes are additive, the model of a fold is the
+ * model of all instances minus the counts of the fold's instances. So each
+ * fold is removed from the full model with
+ * {@link EfficientNaiveBayes#forgetInstances(List)}, its instances are
+ * classified in parallel and then added back again.
+ *
+ * @author Jan Keim
+ * @author Sebastian Weigelt
+ *
+ */
+public final class CrossValidation {
+	private static final Logger logger = LoggerFactory.getLogger(CrossValidation.class);
+
+	private CrossValidation() {
+	}
+
+	/**
+	 * Cross-validates the classifier on the data. Afterwards, the classifier is
+	 * trained on all the data.
+	 *
+	 * @param classifier
+	 *            the (untrained) classifier
+	 * @param data
+	 *            the filtered data, instances with missing class are not
+	 *            assigned to any fold
+	 * @param numFolds
+	 *            the number of folds
+	 * @param random
+	 *            used to assign the instances to folds
+	 * @return the weighted accuracy of each fold
+	 * @throws Exception
+	 *             if the classifier could not be trained
+	 */
+	public static double[] crossValidate(EfficientNaiveBayes classifier, Instances data, int numFolds, Random random) throws Exception {
+		if (numFolds < 2) {
+			throw new IllegalArgumentException("Number of folds has to be at least 2!");
+		}
+		classifier.buildClassifier(data);
+
+		List<List<Instance>> folds = CrossValidation.split(data, numFolds, random);
+		double[] accuracies = new double[numFolds];
+		for (int fold = 0; fold < numFolds; fold++) {
+			List<Instance> foldInstances = folds.get(fold);
+			classifier.forgetInstances(foldInstances).throwIfFailed();
+			accuracies[fold] = CrossValidation.accuracy(classifier, foldInstances);
+			classifier.updateClassifier(foldInstances).throwIfFailed();
+			logger.debug("Fold {}: accuracy {}", fold, accuracies[fold]);
+		}
+		return accuracies;
+	}
+
+	private static List<List<Instance>> split(Instances data, int numFolds, Random random) {
+		List<Instance> shuffled = new ArrayList<>(data.size());
+		for (Instance instance : data) {
+			// neither trained nor could their classification be correct
+			if (!instance.classIsMissing()) {
+				shuffled.add(instance);
+			}
+		}
+		Collections.shuffle(shuffled, random);
+		List<List<Instance>> folds = new ArrayList<>(numFolds);
+		for (int fold = 0; fold < numFolds; fold++) {
+			folds.add(new ArrayList<>());
+		}
+		for (int i = 0; i < shuffled.size(); i++) {
+			folds.get(i % numFolds).add(shuffled.get(i));
+		}
+		return folds;
+	}
+
+	private static double accuracy(EfficientNaiveBayes classifier, List<Instance> instances) {
+		double[] correctAndTotal = instances.parallelStream().map(instance -> {
+			double predicted;
+			try {
+				predicted = classifier.classifyInstance(instance);
+			} catch (Exception e) {
+				logger.warn(e.getMessage(), e.getCause());
+				predicted = -1;
+			}
+			return new double[] { predicted == instance.classValue() ? instance.weight() : 0, instance.weight() };
+		}).reduce(new double[2], (a, b) -> new double[] { a[0] + b[0], a[1] + b[1] });
+		return correctAndTotal[1] == 0 ? 0 : correctAndTotal[0] / correctAndTotal[1];
+	}
+}
@@ -0,0 +1,129 @@
+package edu.kit.ipd.pronat.wiki_wsd.classifier;
+
+import java.io.Serial;
+import java.util.Arrays;
+
+/**
+ * {@link SparseDiscreteEstimator} that stores the counts of all symbols in a
+ * double array. Used for attributes with few symbols or estimators where most
+ * of the symbols have been seen, where the array is smaller and faster than a
+ * map.
+ *
+ * @author Jan Keim
+ * @author Sebastian Weigelt
+ *
+ */
+public class DenseDiscreteEstimator extends SparseDiscreteEstimator {
+	@Serial
+	private static final long serialVersionUID = -793109155973854947L;
+
+	/** Hold the counts including the prior, indexed by symbol, replaced as a whole when it grows */
+	private volatile double[] denseCounts;
+	/** Hold the sum of counts, changed while holding the lock */
+	private volatile double sumOfCounts;
+
+	/**
+	 * Constructor
+	 *
+	 * @param numSymbols
+	 *            the number of possible symbols (remember to include 0)
+	 * @param laplace
+	 *            if true, counts will be initialized to 1
+	 */
+	public DenseDiscreteEstimator(int numSymbols, boolean laplace) {
+		super(true);
+		setNumSymbols(numSymbols);
+		if (laplace) {
+			setfPrior(1d);
+			sumOfCounts = numSymbols;
+		}
+		double[] counts = new double[numSymbols];
+		Arrays.fill(counts, getPrior());
+		denseCounts = counts;
+	}
+
+	/**
+	 * Creates a dense copy of the given estimator.
+	 *
+	 * @param source
+	 *            the estimator to copy
+	 */
+	public DenseDiscreteEstimator(SparseDiscreteEstimator source) {
+		super(true);
+		double[] counts = new double[source.getNumSymbols()];
+		Arrays.fill(counts, source.getPrior());
+		denseCounts = counts;
+		copyFrom(source);
+	}
+
+	@Override
+	public synchronized void addValue(double data, double weight) {
+		int symbol = (int) data;
+		ensureCapacity(symbol)[symbol] += weight;
+		sumOfCounts += weight;
+	}
+
+	@Override
+	public double getSumOfCounts() {
+		return sumOfCounts;
+	}
+
+	@Override
+	protected void setSumOfCounts(double sumOfCounts) {
+		this.sumOfCounts = sumOfCounts;
+	}
+
+	@Override
+	protected synchronized void addToSumOfCounts(double weight) {
+		sumOfCounts += weight;
+	}
+
+	@Override
+	protected double countOf(int symbol) {
+		double[] current = denseCounts;
+		return symbol < current.length ? current[symbol] : getPrior();
+	}
+
+	@Override
+	protected synchronized void putCount(int symbol, double count) {
+		ensureCapacity(symbol)[symbol] = count;
+	}
+
+	@Override
+	protected void forEachCount(CountConsumer consumer) {
+		double[] current = denseCounts;
+		double prior = getPrior();
+		for (int symbol = 0; symbol < current.length; symbol++) {
+			if (current[symbol] != prior) {
+				consumer.accept(symbol, current[symbol]);
+			}
+		}
+	}
+
+	@Override
+	protected int numStoredCounts() {
+		int stored = 0;
+		double prior = getPrior();
+		for (double count : denseCounts) {
+			if (count != prior) {
+				stored++;
+			}
+		}
+		return stored;
+	}
+
+	/**
+	 * @return the counts, grown to hold the symbol if necessary. The grown array
+	 *         is filled before it is published.
+	 */
+	private double[] ensureCapacity(int symbol) {
+		double[] current = denseCounts;
+		if (symbol >= current.length) {
+			double[] grown = Arrays.copyOf(current, Math.max(symbol + 1, getNumSymbols()));
+			Arrays.fill(grown, current.length, grown.length, getPrior());
+			denseCounts = grown;
+			return grown;
+		}
+		return current;
+	}
+}
@@ -5,16 +5,31 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntConsumer;
 
+import weka.classifiers.UpdateableClassifier;
 import weka.classifiers.bayes.NaiveBayes;
 import weka.core.Aggregateable;
 import weka.core.Attribute;
 import weka.core.Instance;
 import weka.core.Instances;
+import weka.core.SparseInstance;
 import weka.core.Utils;
+import weka.estimators.Estimator;
 
 /**
  * Class that represents a slightly adapted NaiveBayes. The original was the
@@ -22,21 +37,223 @@ import weka.core.Utils;
  *
  * If you use FrequentWords in your attribute, the attribute name must start
  * with "mFrequent" and the frequent word attributes must be the last attributes
- * in the feature vector.
+ * in the feature vector. For instances that are {@link SparseInstance}s (see
+ * {@link InstanceBuilder#setContextWords(java.util.Collection)}), scoring only
+ * visits the frequent word attributes with a non-default value and starts
+ * from the precomputed scores of all of them being absent. This requires the
+ * frequent word attributes to be nominal with {@link #FREQUENT_WORD_ABSENT} as
+ * first value and {@link #FREQUENT_WORD_PRESENT}, otherwise sparse instances
+ * are scored like dense ones.
  *
  * @author Jan Keim
  * @author Sebastian Weigelt
  *
  */
-public class EfficientNaiveBayes extends NaiveBayes {
+public class EfficientNaiveBayes extends NaiveBayes implements UpdateableClassifier {
 	/** for serialization */
 	@Serial
 	private static final long serialVersionUID = -2005943895798009959L;
 
+	/** attributes with at most this many symbols always use dense estimators */
+	public static final int DENSE_MAX_SYMBOLS = 64;
+	/** estimators that have seen at least this fraction of symbols become dense */
+	public static final double DENSE_MIN_FILL_RATIO = 0.25;
+	/** sparse estimators with at most this many seen symbols become sorted */
+	public static final int SORTED_MAX_SIZE = 1024;
+
+	/**
+	 * whether to compact the estimators at the end of buildClassifier, not
+	 * serialized to keep the field layout of models written before
+	 */
+	protected transient boolean m_CompactDistributions = true;
+
+	/** the number of threads used for training, 0 for one per processor, not serialized */
+	protected transient int m_NumThreads = 0;
+
+	/** progress is reported every this many instances */
+	public static final int PROGRESS_INTERVAL = 100000;
+
+	/** default for the number of classes from which on an instance is scored in parallel */
+	public static final int DEFAULT_PARALLEL_SCORING_THRESHOLD = 20000;
+	/** number of threads that score the class ranges of one instance */
+	public static final int PARALLEL_SCORING_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+	private static ForkJoinPool scoringPool;
+
+	private static final AtomicLongFieldUpdater<EfficientNaiveBayes> COUNTS_VERSION = AtomicLongFieldUpdater.newUpdater(EfficientNaiveBayes.class,
+			"m_CountsVersion");
+
+	/** name prefix of the frequent word attributes */
+	public static final String FREQUENT_WORD_PREFIX = "mFrequent";
+	/** value of a frequent word attribute if the word is absent, the first value */
+	public static final String FREQUENT_WORD_ABSENT = "0";
+	/** value of a frequent word attribute if the word is present */
+	public static final String FREQUENT_WORD_PRESENT = "1";
+
+	/**
+	 * models with at least this many classes score the class ranges of an
+	 * instance in parallel, 0 to always score in the calling thread, not
+	 * serialized
+	 */
+	protected transient int m_ParallelScoringThreshold = DEFAULT_PARALLEL_SCORING_THRESHOLD;
+
+	/** the executor used for training, null for an own pool */
+	protected transient Executor m_Executor;
+	/** receives the training progress, may be null */
+	protected transient TrainingListener m_TrainingListener;
+	private transient volatile boolean m_CancelRequested;
+	private transient volatile TrainingReport m_LastTrainingReport;
+	/** scores of the absent frequent words, valid for one version of the counts */
+	private transient volatile SparseBaseline m_SparseBaseline;
+	/** incremented after the counts changed */
+	private transient volatile long m_CountsVersion;
+
 	public EfficientNaiveBayes() {
 		super();
 	}
 
+	/**
+	 * Resets the options that are not serialized to their defaults. FST does not
+	 * call readObject hooks without changing the stream format, so the
+	 * deserialization methods of the {@link SerializationHelper} call this
+	 * instead.
+	 */
+	void resetTransientOptions() {
+		m_CompactDistributions = true;
+		m_NumThreads = 0;
+		m_ParallelScoringThreshold = DEFAULT_PARALLEL_SCORING_THRESHOLD;
+	}
+
+	/**
+	 * @return whether the estimators are compacted at the end of buildClassifier
+	 */
+	public boolean getCompactDistributions() {
+		return m_CompactDistributions;
+	}
+
+	/**
+	 * Sets whether the estimators are compacted at the end of buildClassifier,
+	 * see {@link #compactDistributions()}. The option is not serialized.
+	 *
+	 * @param compactDistributions
+	 *            whether to compact the estimators
+	 */
+	public void setCompactDistributions(boolean compactDistributions) {
+		m_CompactDistributions = compactDistributions;
+	}
+
+	/**
+	 * @return the number of threads used for training, 0 for one per processor
+	 */
+	public int getNumThreads() {
+		return m_NumThreads;
+	}
+
+	/**
+	 * Sets the number of threads used for training. The option is not
+	 * serialized.
+	 *
+	 * @param numThreads
+	 *            the number of threads, 0 for one per available processor
+	 */
+	public void setNumThreads(int numThreads) {
+		if (numThreads < 0) {
+			throw new IllegalArgumentException("Number of threads must not be negative!");
+		}
+		m_NumThreads = numThreads;
+	}
+
+	/**
+	 * @return the number of classes from which on an instance is scored in
+	 *         parallel, 0 if never
+	 */
+	public int getParallelScoringThreshold() {
+		return m_ParallelScoringThreshold;
+	}
+
+	/**
+	 * Sets the number of classes from which on the class range of a single
+	 * instance is split across a small shared fork-join pool when scoring. This
+	 * lowers the latency of single requests against models with very many
+	 * senses, smaller models do not pay the fork overhead. The option is not
+	 * serialized.
+	 *
+	 * @param parallelScoringThreshold
+	 *            the number of classes, 0 to always score in the calling thread
+	 */
+	public void setParallelScoringThreshold(int parallelScoringThreshold) {
+		if (parallelScoringThreshold < 0) {
+			throw new IllegalArgumentException("Parallel scoring threshold must not be negative!");
+		}
+		m_ParallelScoringThreshold = parallelScoringThreshold;
+	}
+
+	/**
+	 * @return the executor used for training, null if an own pool is used
+	 */
+	public Executor getExecutor() {
+		return m_Executor;
+	}
+
+	/**
+	 * Sets the executor training runs on. The instances are still split into
+	 * {@link #getNumThreads()} chunks, the parallelism is limited by the
+	 * executor. If no executor is set, a pool with one thread per chunk is
+	 * created for each update. The executor is not serialized.
+	 *
+	 * @param executor
+	 *            the executor, null to use an own pool
+	 */
+	public void setExecutor(Executor executor) {
+		m_Executor = executor;
+	}
+
+	/**
+	 * @return the listener that receives the training progress, may be null
+	 */
+	public TrainingListener getTrainingListener() {
+		return m_TrainingListener;
+	}
+
+	/**
+	 * Sets the listener that receives the progress of updates with many
+	 * instances. The listener is not serialized.
+	 *
+	 * @param trainingListener
+	 *            the listener, null for none
+	 */
+	public void setTrainingListener(TrainingListener trainingListener) {
+		m_TrainingListener = trainingListener;
+	}
+
+	/**
+	 * Cancels the running training. The training threads stop after their
+	 * current instance; the model then contains the instances processed so far.
+	 * {@link #buildClassifier(Instances)} throws a
+	 * {@link CancellationException}, {@link #updateClassifier(List)} reports the
+	 * cancellation in its result. The cancellation also applies to updates that
+	 * start later, until a new build starts or {@link #clearCancellation()} is
+	 * called.
+	 */
+	public void cancelTraining() {
+		m_CancelRequested = true;
+	}
+
+	/**
+	 * Withdraws a cancellation by {@link #cancelTraining()}, so the classifier
+	 * can be updated again.
+	 */
+	public void clearCancellation() {
+		m_CancelRequested = false;
+	}
+
+	/**
+	 * @return the report of the last update with many instances, null if there
+	 *         was none
+	 */
+	public TrainingReport getLastTrainingReport() {
+		return m_LastTrainingReport;
+	}
+
 	/**
 	 * Generates the classifier.
 	 *
@@ -47,7 +264,124 @@ public class EfficientNaiveBayes extends NaiveBayes {
 	 */
 	@Override
 	public void buildClassifier(Instances instances) throws Exception {
+		initializeDistributions(instances);
+
+		// Compute counts
+		TrainingReport report = updateClassifier(m_Instances);
+		if (report.isCancelled()) {
+			throw new CancellationException("Training was cancelled after " + report.getProcessed() + " instances");
+		}
+		finishBuild();
+	}
 
+	/**
+	 * Generates the classifier from columnar training data.
+	 *
+	 * @param data
+	 *            the training data
+	 * @exception Exception
+	 *                if the classifier has not been generated successfully
+	 */
+	public void buildClassifier(ColumnarInstances data) throws Exception {
+		initializeDistributions(new Instances(data.getHeader(), 0));
+		updateClassifier(data);
+		finishBuild();
+	}
+
+	/**
+	 * Updates the classifier with columnar data. The columns are counted in
+	 * parallel, one task per attribute, so no two tasks update the same
+	 * estimator. Instances with missing class are skipped. If the training is
+	 * cancelled, the tasks that stopped earlier count on up to the instance the
+	 * furthest task reached, so the model contains the same instances in all
+	 * estimators. Only if the calling thread is interrupted, the estimators may
+	 * contain different instances and the model has to be rebuilt.
+	 *
+	 * @param data
+	 *            the new training data, with the same attributes as the model
+	 * @exception CancellationException
+	 *                if the training was cancelled
+	 * @exception Exception
+	 *                if the data does not fit the classifier
+	 */
+	public void updateClassifier(ColumnarInstances data) throws Exception {
+		int classIndex = m_Instances.classIndex();
+		if ((data.numAttributes() != m_Instances.numAttributes()) || (data.getHeader().classIndex() != classIndex)) {
+			throw new Exception("Data does not fit the classifier");
+		}
+		ColumnarInstances.IntColumn classes = data.column(classIndex);
+		ColumnarInstances.FloatColumn weights = data.weights();
+		int numInstances = data.numInstances();
+
+		// one counter per task, counts the instance with the given index
+		List<IntConsumer> counters = new ArrayList<>();
+		counters.add(i -> {
+			int classValue = classes.get(i);
+			if (classValue >= 0) {
+				m_ClassDistribution.addValue(classValue, weights.get(i));
+			}
+		});
+		for (int att = 0; att < m_Distributions.length; att++) {
+			ColumnarInstances.IntColumn column = data.column(att < classIndex ? att : att + 1);
+			Estimator[] estimators = m_Distributions[att];
+			int attIndex = att;
+			counters.add(i -> {
+				int classValue = classes.get(i);
+				int value = column.get(i);
+				if ((classValue >= 0) && (value >= 0)) {
+					ensureNumSymbols(attIndex, value + 1);
+					estimators[classValue].addValue(value, weights.get(i));
+				}
+			});
+		}
+
+		int[] reached = new int[counters.size()];
+		List<Runnable> tasks = new ArrayList<>();
+		for (int t = 0; t < counters.size(); t++) {
+			IntConsumer counter = counters.get(t);
+			int task = t;
+			tasks.add(() -> {
+				int i = 0;
+				for (; (i < numInstances) && !m_CancelRequested; i++) {
+					counter.accept(i);
+				}
+				reached[task] = i;
+			});
+		}
+		try {
+			runInParallel(tasks, tasks.size());
+			if (m_CancelRequested) {
+				int stop = Arrays.stream(reached).max().orElse(0);
+				List<Runnable> remainingTasks = new ArrayList<>();
+				for (int t = 0; t < counters.size(); t++) {
+					IntConsumer counter = counters.get(t);
+					int from = reached[t];
+					remainingTasks.add(() -> {
+						for (int i = from; i < stop; i++) {
+							counter.accept(i);
+						}
+					});
+				}
+				runInParallel(remainingTasks, remainingTasks.size());
+				throw new CancellationException("Training was cancelled after " + stop + " instances");
+			}
+		} finally {
+			countsChanged();
+		}
+	}
+
+	/**
+	 * First step of {@link #buildClassifier(Instances)}: keeps the training data
+	 * and creates the empty estimators.
+	 *
+	 * @param instances
+	 *            set of instances serving as training data
+	 * @exception Exception
+	 *                if the data cannot be handled
+	 */
+	void initializeDistributions(Instances instances) throws Exception {
+		// a new build, earlier cancellations do not apply
+		m_CancelRequested = false;
 		// can classifier handle the data?
 		getCapabilities().testWithFail(instances);
 
@@ -71,50 +405,224 @@ public class EfficientNaiveBayes extends NaiveBayes {
 			Attribute attribute = enu.nextElement();
 			for (int j = 0; j < m_Instances.numClasses(); j++) {
 				if (attribute.type() == Attribute.NOMINAL) {
-					m_Distributions[attIndex][j] = new SparseDiscreteEstimator(attribute.numValues(), true);
+					m_Distributions[attIndex][j] = attribute.numValues() <= DENSE_MAX_SYMBOLS ? new DenseDiscreteEstimator(attribute.numValues(), true)
+							: new SparseDiscreteEstimator(attribute.numValues(), true);
 				} else {
 					throw new Exception("Attribute type unknown to EfficientNaiveBayes");
 				}
 			}
 			attIndex++;
 		}
+		countsChanged();
+	}
 
-		// Compute counts
-		int threads = Runtime.getRuntime().availableProcessors();
-		ExecutorService executor = Executors.newWorkStealingPool(threads);
+	/**
+	 * Replaces the model of this classifier by the model of the other one, for
+	 * example one restored from a checkpoint. The options of this classifier are
+	 * kept and, as for a new build, earlier cancellations do not apply.
+	 *
+	 * @param other
+	 *            the classifier whose model is taken over, must not be used
+	 *            afterwards
+	 */
+	void replaceModel(EfficientNaiveBayes other) {
+		m_CancelRequested = false;
+		m_NumClasses = other.m_NumClasses;
+		m_Instances = other.m_Instances;
+		m_Distributions = other.m_Distributions;
+		m_ClassDistribution = other.m_ClassDistribution;
+		countsChanged();
+	}
 
-		int instancesPerThread = (int) Math.ceil(m_Instances.size() / (double) threads);
-		List<Instance> currInstances = new ArrayList<>();
-		int counter = 0;
-		for (Instance instance : m_Instances) {
-			currInstances.add(instance);
-			counter++;
+	/**
+	 * Last step of {@link #buildClassifier(Instances)}: drops the training data
+	 * and compacts the estimators.
+	 */
+	void finishBuild() {
+		// Save space
+		m_Instances = new Instances(m_Instances, 0);
+		if (m_CompactDistributions) {
+			compactDistributions();
+		}
+	}
 
-			if (counter >= instancesPerThread) {
-				List<Instance> instancesCopy = List.copyOf(currInstances);
-				executor.execute(updateClassifierRunnable(instancesCopy));
-				currInstances = new ArrayList<>();
-				counter = 0;
+	/**
+	 * Chooses the representation of each conditional estimator from its number
+	 * of symbols and how many of them have been seen: a dense array if the
+	 * estimator is small or well filled, sorted arrays if only few symbols have
+	 * been seen and a hash map otherwise. Dense and hash map estimators stay as
+	 * they are, so this can be called again after further updates.
+	 */
+	public void compactDistributions() {
+		Arrays.stream(m_Distributions).parallel().forEach(estimators -> {
+			for (int j = 0; j < estimators.length; j++) {
+				estimators[j] = EfficientNaiveBayes.compact((SparseDiscreteEstimator) estimators[j]);
 			}
+		});
+		countsChanged();
+	}
+
+	/**
+	 * Moves the counts of all conditional estimators out of the Java heap, see
+	 * {@link OffHeapDiscreteEstimator}. Estimators that are off-heap already are
+	 * kept, {@link #compactDistributions()} keeps them as well.
+	 *
+	 * @param arena
+	 *            the arena the count tables are allocated from
+	 */
+	public void moveDistributionsOffHeap(OffHeapArena arena) {
+		Arrays.stream(m_Distributions).parallel().forEach(estimators -> {
+			for (int j = 0; j < estimators.length; j++) {
+				if (!(estimators[j] instanceof OffHeapDiscreteEstimator)) {
+					estimators[j] = new OffHeapDiscreteEstimator((SparseDiscreteEstimator) estimators[j], arena);
+				}
+			}
+		});
+		countsChanged();
+	}
+
+	private static SparseDiscreteEstimator compact(SparseDiscreteEstimator estimator) {
+		if ((estimator instanceof DenseDiscreteEstimator) || (estimator instanceof OffHeapDiscreteEstimator)) {
+			return estimator;
 		}
-		executor.shutdown();
-		executor.awaitTermination(255, TimeUnit.MINUTES);
-		// Save space
-		m_Instances = new Instances(m_Instances, 0);
+		int stored = estimator.numStoredCounts();
+		if ((estimator.getNumSymbols() <= DENSE_MAX_SYMBOLS) || (stored >= (DENSE_MIN_FILL_RATIO * estimator.getNumSymbols()))) {
+			return new DenseDiscreteEstimator(estimator);
+		}
+		if ((stored <= SORTED_MAX_SIZE) && !(estimator instanceof SortedDiscreteEstimator)) {
+			return new SortedDiscreteEstimator(estimator);
+		}
+		return estimator;
+	}
+
+	/**
+	 * Updates the classifier with all the given instances. The instances are
+	 * split into one chunk per thread (see {@link #setNumThreads(int)}) and the
+	 * chunks are counted in parallel.
+	 *
+	 * @param instances
+	 *            the new training instances to include in the model
+	 * @return the number of processed instances and the failures
+	 * @exception Exception
+	 *                if the instances could not be incorporated in the model.
+	 */
+	public TrainingReport updateClassifier(List<Instance> instances) throws Exception {
+		return processInParallel(instances, this::addInstance);
+	}
+
+	/**
+	 * Removes all the given instances from the classifier in parallel, see
+	 * {@link #forgetInstance(Instance)}.
+	 *
+	 * @param instances
+	 *            the training instances to remove from the model
+	 * @return the number of processed instances and the failures
+	 * @exception Exception
+	 *                if the instances could not be removed from the model.
+	 */
+	public TrainingReport forgetInstances(List<Instance> instances) throws Exception {
+		return processInParallel(instances, this::removeInstance);
 	}
 
-	private Runnable updateClassifierRunnable(List<Instance> instances) {
+	private TrainingReport processInParallel(List<Instance> instances, InstanceProcessor processor) throws InterruptedException {
+		int threads = m_NumThreads > 0 ? m_NumThreads : Runtime.getRuntime().availableProcessors();
+		Progress progress = new Progress(instances.size(), m_TrainingListener);
+
+		List<Runnable> tasks = new ArrayList<>();
+		int instancesPerThread = Math.max(1, (int) Math.ceil(instances.size() / (double) threads));
+		for (int from = 0; from < instances.size(); from += instancesPerThread) {
+			int to = Math.min(from + instancesPerThread, instances.size());
+			tasks.add(processInstancesRunnable(instances.subList(from, to), processor, progress));
+		}
+		try {
+			runInParallel(tasks, threads);
+		} finally {
+			countsChanged();
+		}
+
+		TrainingReport report = progress.report(m_CancelRequested && (progress.processed.get() < instances.size()));
+		m_LastTrainingReport = report;
+		return report;
+	}
+
+	/**
+	 * Runs the tasks on the executor (or an own pool with the given number of
+	 * threads) and waits for all of them.
+	 */
+	private void runInParallel(List<Runnable> tasks, int threads) throws InterruptedException {
+		ExecutorService ownPool = m_Executor == null ? Executors.newWorkStealingPool(threads) : null;
+		Executor executor = ownPool != null ? ownPool : m_Executor;
+		try {
+			CompletableFuture<?>[] futures = tasks.stream().map(task -> CompletableFuture.runAsync(task, executor)).toArray(CompletableFuture[]::new);
+			CompletableFuture.allOf(futures).get();
+		} catch (InterruptedException e) {
+			m_CancelRequested = true;
+			throw e;
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Training task failed", e.getCause());
+		} finally {
+			if (ownPool != null) {
+				ownPool.shutdown();
+			}
+		}
+	}
+
+	private Runnable processInstancesRunnable(List<Instance> instances, InstanceProcessor processor, Progress progress) {
 		return () -> {
 			for (Instance localInstance : instances) {
+				if (m_CancelRequested) {
+					return;
+				}
 				try {
-					updateClassifier(localInstance);
+					processor.process(localInstance);
 				} catch (Exception e) {
-					e.printStackTrace();
+					progress.failed(e);
 				}
+				progress.processed();
 			}
 		};
 	}
 
+	/**
+	 * Counts processed and failed instances of an update and reports the
+	 * progress.
+	 */
+	private static final class Progress {
+		private final long total;
+		private final TrainingListener listener;
+		private final long start = System.nanoTime();
+		private final AtomicLong processed = new AtomicLong();
+		private final AtomicLong failed = new AtomicLong();
+		private final Queue<Exception> failures = new ConcurrentLinkedQueue<>();
+
+		private Progress(long total, TrainingListener listener) {
+			this.total = total;
+			this.listener = listener;
+		}
+
+		private void processed() {
+			long current = processed.incrementAndGet();
+			if ((listener != null) && (((current % PROGRESS_INTERVAL) == 0) || (current == total))) {
+				listener.progress(current, total, current / ((System.nanoTime() - start) / 1e9));
+			}
+		}
+
+		private void failed(Exception e) {
+			if (failed.incrementAndGet() <= TrainingReport.MAX_RECORDED_FAILURES) {
+				failures.add(e);
+			}
+		}
+
+		private TrainingReport report(boolean cancelled) {
+			return new TrainingReport(processed.get(), failed.get(), new ArrayList<>(failures), cancelled, System.nanoTime() - start);
+		}
+	}
+
+	@FunctionalInterface
+	private interface InstanceProcessor {
+		void process(Instance instance) throws Exception;
+	}
+
 	/**
 	 * Updates the classifier with the given instance.
 	 *
@@ -125,12 +633,21 @@ public class EfficientNaiveBayes extends NaiveBayes {
 	 */
 	@Override
 	public void updateClassifier(Instance instance) throws Exception {
+		try {
+			addInstance(instance);
+		} finally {
+			countsChanged();
+		}
+	}
+
+	private void addInstance(Instance instance) {
 		if (!instance.classIsMissing()) {
 			Enumeration<Attribute> enumAtts = m_Instances.enumerateAttributes();
 			int attIndex = 0;
 			while (enumAtts.hasMoreElements()) {
 				Attribute attribute = enumAtts.nextElement();
 				if (!instance.isMissing(attribute)) {
+					ensureNumSymbols(attIndex, (int) instance.value(attribute) + 1);
 					synchronized (m_Distributions[attIndex][(int) instance.classValue()]) {
 						m_Distributions[attIndex][(int) instance.classValue()].addValue(instance.value(attribute), instance.weight());
 					}
@@ -141,6 +658,132 @@ public class EfficientNaiveBayes extends NaiveBayes {
 		}
 	}
 
+	/**
+	 * Grows the number of symbols of all estimators of the attribute, so values
+	 * that were added to the dictionaries after training (see
+	 * {@link SharedVocabularyFilter#encodeAndGrow(Instance)}) can be learned
+	 * online. All classes of the attribute grow together, so the Laplace
+	 * normalization stays consistent between them.
+	 */
+	private void ensureNumSymbols(int attIndex, int numSymbols) {
+		Estimator[] estimators = m_Distributions[attIndex];
+		// the last estimator is grown last
+		if ((estimators.length == 0) || (numSymbols <= ((SparseDiscreteEstimator) estimators[estimators.length - 1]).getNumSymbols())) {
+			return;
+		}
+		synchronized (estimators) {
+			for (Estimator estimator : estimators) {
+				((SparseDiscreteEstimator) estimator).growNumSymbols(numSymbols);
+			}
+		}
+	}
+
+	/**
+	 * Removes the given instance from the classifier, i.e. the inverse of
+	 * {@link #updateClassifier(Instance)}. The instance has to have been used for
+	 * training with the same weight before.
+	 *
+	 * @param instance
+	 *            the training instance to remove from the model
+	 * @exception Exception
+	 *                if the instance could not be removed from the model.
+	 */
+	public void forgetInstance(Instance instance) throws Exception {
+		try {
+			removeInstance(instance);
+		} finally {
+			countsChanged();
+		}
+	}
+
+	private void removeInstance(Instance instance) {
+		if (!instance.classIsMissing()) {
+			Enumeration<Attribute> enumAtts = m_Instances.enumerateAttributes();
+			int attIndex = 0;
+			while (enumAtts.hasMoreElements()) {
+				Attribute attribute = enumAtts.nextElement();
+				if (!instance.isMissing(attribute)) {
+					SparseDiscreteEstimator estimator = (SparseDiscreteEstimator) m_Distributions[attIndex][(int) instance.classValue()];
+					synchronized (estimator) {
+						estimator.removeValue(instance.value(attribute), instance.weight());
+					}
+				}
+				attIndex++;
+			}
+			((SparseDiscreteEstimator) m_ClassDistribution).removeValue(instance.classValue(), instance.weight());
+		}
+	}
+
+	/**
+	 * Replaces the header of the trained classifier, e.g. with the compact header
+	 * of a {@link SharedVocabularyFilter}. The new header has to have the same
+	 * attributes and classes, only the values of non-class attributes may
+	 * differ.
+	 *
+	 * @param header
+	 *            the new header
+	 * @exception Exception
+	 *                if the header does not fit the classifier
+	 */
+	public void setHeader(Instances header) throws Exception {
+		if ((header.numAttributes() != m_Instances.numAttributes()) || (header.classIndex() != m_Instances.classIndex())
+				|| (header.numClasses() != m_NumClasses)) {
+			throw new Exception("Header does not fit the classifier");
+		}
+		for (int i = 0; i < header.numAttributes(); i++) {
+			if (!header.attribute(i).name().equals(m_Instances.attribute(i).name())) {
+				throw new Exception("Header does not fit the classifier: attribute " + i + " is " + header.attribute(i).name());
+			}
+		}
+		m_Instances = new Instances(header, 0);
+	}
+
+	/**
+	 * Reads all counts of the model once, so its memory is paged in and the
+	 * reading code is compiled before the first classification.
+	 *
+	 * @return the sum of all counts
+	 */
+	public double touch() {
+		double sum = Arrays.stream(m_Distributions).parallel().mapToDouble(estimators -> {
+			double[] attributeSum = new double[1];
+			for (Estimator estimator : estimators) {
+				((SparseDiscreteEstimator) estimator).forEachCount((symbol, count) -> attributeSum[0] += count);
+			}
+			return attributeSum[0];
+		}).sum();
+		return sum + ((SparseDiscreteEstimator) m_ClassDistribution).getSumOfCounts();
+	}
+
+	/**
+	 * @return the header of the training data
+	 */
+	Instances getTrainingHeader() {
+		return m_Instances;
+	}
+
+	/**
+	 * @return the conditional estimators, indexed by attribute (without the
+	 *         class) and class
+	 */
+	Estimator[][] getDistributions() {
+		return m_Distributions;
+	}
+
+	/**
+	 * @return the estimator of the class prior
+	 */
+	SparseDiscreteEstimator getClassDistribution() {
+		return (SparseDiscreteEstimator) m_ClassDistribution;
+	}
+
+	/**
+	 * @return the number of classes
+	 */
+	int getNumClasses() {
+		return m_NumClasses;
+	}
+
 	public EfficientNaiveBayes aggregate(EfficientNaiveBayes toAggregate) throws Exception {
 
 		// Highly unlikely that discretization intervals will match between the
@@ -181,16 +824,9 @@ public class EfficientNaiveBayes extends NaiveBayes {
 		}
 		switch (instance.classAttribute().type()) {
 		case Attribute.NOMINAL:
-			double max = Integer.MIN_VALUE; // changed
-			int maxIndex = -1;
-
-			for (int i = 0; i < dist.length; i++) {
-				if (dist[i] > max) {
-					maxIndex = i;
-					max = dist[i];
-				}
-			}
-			if (maxIndex >= 0) { // don't check if max>0, index instead
+			// changed: don't check if max>0, index instead
+			int maxIndex = ScoringKernel.argmax(dist, Integer.MIN_VALUE);
+			if (maxIndex >= 0) {
 				return maxIndex;
 			} else {
 				return Utils.missingValue();
@@ -209,41 +845,562 @@ public class EfficientNaiveBayes extends NaiveBayes {
 			m_Disc.input(instance);
 			instance = m_Disc.output();
 		}
-
 		// adapted with log-sum-exp trick against underflows:
 		// https://stats.stackexchange.com/a/253319
 
 		// numerator p(x|Y=C)P(Y=C)
 		// with log: log(p(C_k)) + Sum(log(p(x|C_k)))
+		// NOTE: to save calculation time omit the denominator.
+		// this way we don't get the probabilities, but the order is still the
+		// same, as we only need
+		// the argmax
 		double[] logNumerator = new double[m_NumClasses];
+		scoreClasses(scoredValues(instance), logNumerator, 0, Double.NEGATIVE_INFINITY);
+		return logNumerator;
+	}
 
-		for (int k = 0; k < m_NumClasses; k++) {
-			// get the log(p(C_k))
-			logNumerator[k] = Math.log(m_ClassDistribution.getProbability(k));
-			// calc the Sum(log(p(x|C_k))) for each k
+	/**
+	 * Same as {@link #logDistributionForInstance(Instance)}, but the values are
+	 * scored in order of decreasing attribute weight and scoring stops before the
+	 * next value if it would not be finished before the deadline (estimated from
+	 * the duration of the previous value). The result then only contains the
+	 * class prior and the values scored so far, e.g. only the actualWord, which
+	 * leads to the most frequent sense of the lemma. Like the complete scoring,
+	 * sparse instances start from the {@link SparseBaseline} and each value is
+	 * scored in parallel class ranges above the
+	 * {@link #getParallelScoringThreshold() parallel scoring threshold}.
+	 *
+	 * @param instance
+	 *            the instance to be classified
+	 * @param deadlineNanos
+	 *            the deadline in terms of {@link System#nanoTime()}
+	 * @return the (partial) log-distribution
+	 */
+	PartialDistribution logDistributionForInstance(Instance instance, long deadlineNanos) {
+		if (m_UseDiscretization) {
+			m_Disc.input(instance);
+			instance = m_Disc.output();
+		}
+		ScoredValues scored = scoredValues(instance);
+		scored.sortByFactor();
 
-			Enumeration<Attribute> enumAtts = instance.enumerateAttributes();
-			int attIndex = -1;
-			while (enumAtts.hasMoreElements()) {
-				attIndex++;
-				Attribute attribute = enumAtts.nextElement();
-				if (instance.isMissing(attribute)) {
+		double[] logNumerator = new double[m_NumClasses];
+		forEachClassRange((range, from, to) -> scorePriors(scored, from, to, logNumerator));
+		long lastDuration = 0;
+		for (int a = 0; a < scored.size; a++) {
+			long start = System.nanoTime();
+			if (((start + lastDuration) - deadlineNanos) > 0) {
+				return new PartialDistribution(logNumerator, false);
+			}
+			int value = a;
+			forEachClassRange((range, from, to) -> EfficientNaiveBayes.scoreValues(m_Distributions, scored, value, value + 1, from, to, logNumerator));
+			lastDuration = System.nanoTime() - start;
+		}
+		return new PartialDistribution(logNumerator, true);
+	}
+
+	/**
+	 * Calculates {@link #logDistributionForInstance(Instance)} into the given
+	 * array and returns the indices of the k highest scores like
+	 * {@link ScoringKernel#topK(double[], int, double)}. Above the
+	 * {@link #getParallelScoringThreshold() parallel scoring threshold} each class
+	 * range computes its own top k, which are merged afterwards.
+	 *
+	 * @param instance
+	 *            the instance to be classified
+	 * @param logDistribution
+	 *            receives the log-distribution, one entry per class
+	 * @param k
+	 *            the maximum number of indices
+	 * @param floor
+	 *            scores have to be greater than this value
+	 * @return the indices of the top k scores, highest first
+	 */
+	int[] logDistributionTopK(Instance instance, double[] logDistribution, int k, double floor) {
+		if (m_UseDiscretization) {
+			m_Disc.input(instance);
+			instance = m_Disc.output();
+		}
+		return scoreClasses(scoredValues(instance), logDistribution, k, floor);
+	}
+
+	/**
+	 * Scores all classes and returns the indices of the k highest scores. Each
+	 * class range computes its own top k, which are merged afterwards.
+	 */
+	private int[] scoreClasses(ScoredValues scored, double[] logDistribution, int k, double floor) {
+		int[][] tops = new int[PARALLEL_SCORING_THREADS][];
+		forEachClassRange((range, from, to) -> {
+			scoreRange(scored, from, to, logDistribution);
+			tops[range] = ScoringKernel.topK(logDistribution, from, to, k, floor);
+		});
+		int[] top = new int[0];
+		for (int[] rangeTop : tops) {
+			if (rangeTop != null) {
+				top = ScoringKernel.mergeTopK(logDistribution, top, rangeTop, k);
+			}
+		}
+		return top;
+	}
+
+	/**
+	 * Runs the action for the class ranges of one instance. Above the
+	 * {@link #getParallelScoringThreshold() parallel scoring threshold} the
+	 * classes are split into {@link #PARALLEL_SCORING_THREADS} ranges, which are
+	 * taken by the calling thread and by helpers in the scoring pool. If the pool
+	 * already has queued submissions of other instances, no helpers are
+	 * submitted and the calling thread scores all ranges, so concurrent requests
+	 * do not wait for each other. Otherwise there is a single range of all
+	 * classes.
+	 */
+	private void forEachClassRange(ClassRangeAction action) {
+		if (!scoresInParallel()) {
+			action.score(0, 0, m_NumClasses);
+			return;
+		}
+		ForkJoinPool pool = EfficientNaiveBayes.getScoringPool();
+		ClassRanges ranges = new ClassRanges(action, m_NumClasses);
+		if (pool.getQueuedSubmissionCount() == 0) {
+			for (int helper = 1; helper < ranges.numRanges; helper++) {
+				pool.execute(ranges);
+			}
+		}
+		ranges.run();
+		ranges.await();
+	}
+
+	private boolean scoresInParallel() {
+		return (m_ParallelScoringThreshold > 0) && (m_NumClasses >= m_ParallelScoringThreshold) && (PARALLEL_SCORING_THREADS > 1);
+	}
+
+	private static synchronized ForkJoinPool getScoringPool() {
+		if (scoringPool == null) {
+			// the calling thread scores one of the ranges
+			scoringPool = new ForkJoinPool(PARALLEL_SCORING_THREADS - 1);
+		}
+		return scoringPool;
+	}
+
+	/**
+	 * Collects the values of the instance that have to be scored, for sparse
+	 * instances relative to the {@link SparseBaseline}.
+	 */
+	private ScoredValues scoredValues(Instance instance) {
+		if ((instance instanceof SparseInstance) && (instance.dataset() != null)) {
+			SparseBaseline baseline = getSparseBaseline(instance.dataset());
+			if (baseline.firstFrequent >= 0) {
+				return ScoredValues.of(instance, baseline.firstFrequent, baseline.logDefaults);
+			}
+		}
+		return ScoredValues.of(instance);
+	}
+
+	/**
+	 * Scores the classes of the range: the log class prior plus the scores of all
+	 * values.
+	 */
+	private void scoreRange(ScoredValues scored, int from, int to, double[] logDistribution) {
+		scorePriors(scored, from, to, logDistribution);
+		EfficientNaiveBayes.scoreValues(m_Distributions, scored, 0, scored.size, from, to, logDistribution);
+	}
+
+	/**
+	 * Sets the scores of the classes of the range to the log class prior, plus
+	 * the baseline of sparse instances.
+	 */
+	private void scorePriors(ScoredValues scored, int from, int to, double[] logDistribution) {
+		for (int c = from; c < to; c++) {
+			logDistribution[c] = Math.log(m_ClassDistribution.getProbability(c));
+			if (scored.logDefaults != null) {
+				logDistribution[c] += scored.instanceWeight * scored.logDefaults[c];
+			}
+		}
+	}
+
+	/**
+	 * Adds the weighted log-probabilities of the scored values [fromValue,
+	 * toValue) to the scores of the classes [from, to). The scores are
+	 * accumulated class-major: the probabilities of a value are gathered for all
+	 * classes of the range and their logarithms are added by the
+	 * {@link ScoringKernel}.
+	 *
+	 * @param distributions
+	 *            the estimators, indexed by attribute (without the class) and
+	 *            class
+	 * @param scored
+	 *            the values of the instance
+	 * @param fromValue
+	 *            the first value to score
+	 * @param toValue
+	 *            the end of the values to score (exclusive)
+	 * @param from
+	 *            the first class
+	 * @param to
+	 *            the end of the classes (exclusive)
+	 * @param logDistribution
+	 *            the scores the values are added to
+	 */
+	static void scoreValues(Estimator[][] distributions, ScoredValues scored, int fromValue, int toValue, int from, int to,
+			double[] logDistribution) {
+		double[] row = new double[to - from];
+		for (int a = fromValue; a < toValue; a++) {
+			Estimator[] estimators = distributions[scored.attIndices[a]];
+			double value = scored.values[a];
+			// missing values only occur relative to the default
+			if (!Double.isNaN(value)) {
+				for (int c = from; c < to; c++) {
+					row[c - from] = estimators[c].getProbability(value);
+				}
+				ScoringKernel.accumulateLog(logDistribution, from, row, scored.factors[a]);
+			}
+			if (scored.relative[a]) {
+				for (int c = from; c < to; c++) {
+					row[c - from] = estimators[c].getProbability(0);
+				}
+				ScoringKernel.accumulateLog(logDistribution, from, row, -scored.factors[a]);
+			}
+		}
+	}
+
+	/**
+	 * Returns the baseline for instances of the given header, computed once per
+	 * header as the attribute weights are taken from it. There is none (the first
+	 * frequent word is -1) if not all attributes from the first frequent word on
+	 * are frequent words with the absent value first.
+	 */
+	private SparseBaseline getSparseBaseline(Instances header) {
+		// read before the counts, a baseline computed during an update is not reused after it
+		long version = m_CountsVersion;
+		SparseBaseline baseline = m_SparseBaseline;
+		if ((baseline != null) && (baseline.header == header) && (baseline.version == version)) {
+			return baseline;
+		}
+		int classIndex = header.classIndex();
+		int firstFrequent = -1;
+		double[] logDefaults = null;
+		int distIndex = 0;
+		for (int att = 0; att < header.numAttributes(); att++) {
+			if (att == classIndex) {
+				continue;
+			}
+			Attribute attribute = header.attribute(att);
+			if ((firstFrequent < 0) && attribute.name().startsWith(FREQUENT_WORD_PREFIX)) {
+				firstFrequent = distIndex;
+				logDefaults = new double[m_NumClasses];
+			}
+			if ((firstFrequent >= 0) && !EfficientNaiveBayes.isSparseFrequentWord(attribute)) {
+				firstFrequent = -1;
+				logDefaults = null;
+				break;
+			}
+			if (firstFrequent >= 0) {
+				Estimator[] estimators = m_Distributions[distIndex];
+				for (int c = 0; c < m_NumClasses; c++) {
+					logDefaults[c] += attribute.weight() * Math.log(estimators[c].getProbability(0));
+				}
+			}
+			distIndex++;
+		}
+		baseline = new SparseBaseline(header, version, firstFrequent, logDefaults);
+		m_SparseBaseline = baseline;
+		return baseline;
+	}
+
+	/**
+	 * Returns whether the attribute is a frequent word attribute that can be left
+	 * out of sparse instances if the word is absent: nominal with
+	 * {@link #FREQUENT_WORD_ABSENT} as first value and with
+	 * {@link #FREQUENT_WORD_PRESENT}.
+	 *
+	 * @param attribute
+	 *            the attribute
+	 * @return whether the attribute is a frequent word attribute for sparse
+	 *         instances
+	 */
+	static boolean isSparseFrequentWord(Attribute attribute) {
+		return attribute.name().startsWith(FREQUENT_WORD_PREFIX) && attribute.isNominal() && (attribute.indexOfValue(FREQUENT_WORD_ABSENT) == 0)
+				&& (attribute.indexOfValue(FREQUENT_WORD_PRESENT) > 0);
+	}
+
+	/**
+	 * Invalidates the cached {@link SparseBaseline}, has to be called after the
+	 * counts changed.
+	 */
+	void countsChanged() {
+		COUNTS_VERSION.incrementAndGet(this);
+	}
+
+	/**
+	 * @return the version of the counts, changes whenever the counts changed
+	 */
+	long getCountsVersion() {
+		return m_CountsVersion;
+	}
+
+	/**
+	 * The per-class scores of all frequent word attributes having their default
+	 * (first) value, i.e. none of the frequent words occurs.
+	 */
+	private static final class SparseBaseline {
+		/** the header whose attribute weights were used */
+		private final Instances header;
+		/** the version of the counts it was computed from */
+		private final long version;
+		/** index of the first frequent word attribute, -1 if there are none */
+		private final int firstFrequent;
+		private final double[] logDefaults;
+
+		private SparseBaseline(Instances header, long version, int firstFrequent, double[] logDefaults) {
+			this.header = header;
+			this.version = version;
+			this.firstFrequent = firstFrequent;
+			this.logDefaults = logDefaults;
+		}
+	}
+
+	/**
+	 * The values of an instance that are scored: all values that are not missing,
+	 * but for sparse instances only the frequent word attributes that do not
+	 * have their default value. Those are scored relative to the
+	 * {@link SparseBaseline}.
+	 */
+	static final class ScoredValues {
+		/** the baseline to start from, null if the instance is scored completely */
+		private final double[] logDefaults;
+		private final double instanceWeight;
+		/** indices of the attributes without the class */
+		private int[] attIndices = new int[16];
+		private double[] values = new double[16];
+		private double[] factors = new double[16];
+		/** whether the value is scored relative to the default value */
+		private boolean[] relative = new boolean[16];
+		private int size;
+
+		private ScoredValues(double[] logDefaults, double instanceWeight) {
+			this.logDefaults = logDefaults;
+			this.instanceWeight = instanceWeight;
+		}
+
+		/**
+		 * Collects all values of the instance that are not missing.
+		 *
+		 * @param instance
+		 *            the instance
+		 * @return the scored values
+		 */
+		static ScoredValues of(Instance instance) {
+			return ScoredValues.of(instance, Integer.MAX_VALUE, null);
+		}
+
+		/**
+		 * Collects the values of the attributes before the first frequent word and
+		 * the frequent words of the sparse instance that do not have their default
+		 * value.
+		 */
+		private static ScoredValues of(Instance instance, int firstFrequent, double[] logDefaults) {
+			int classIndex = instance.classIndex();
+			ScoredValues scored = new ScoredValues(logDefaults, instance.weight());
+			int distIndex = 0;
+			for (int att = 0; (att < instance.numAttributes()) && (distIndex < firstFrequent); att++) {
+				if (att == classIndex) {
 					continue;
 				}
+				if (!instance.isMissing(att)) {
+					scored.add(distIndex, instance.value(att), instance.attribute(att).weight() * instance.weight(), false);
+				}
+				distIndex++;
+			}
+			if (logDefaults != null) {
+				for (int p = 0; p < instance.numValues(); p++) {
+					int att = instance.index(p);
+					distIndex = att < classIndex ? att : att - 1;
+					if ((att == classIndex) || (distIndex < firstFrequent)) {
+						continue;
+					}
+					double factor = instance.attributeSparse(p).weight() * instance.weight();
+					if (instance.isMissingSparse(p)) {
+						scored.add(distIndex, Double.NaN, factor, true);
+					} else if (instance.valueSparse(p) != 0) {
+						scored.add(distIndex, instance.valueSparse(p), factor, true);
+					}
+				}
+			}
+			return scored;
+		}
 
-				double probXInCk = m_Distributions[attIndex][k].getProbability(instance.value(attribute));
-				logNumerator[k] += attribute.weight() * instance.weight() * Math.log(probXInCk);
+		private void add(int attIndex, double value, double factor, boolean relativeToDefault) {
+			if (size == attIndices.length) {
+				attIndices = Arrays.copyOf(attIndices, size * 2);
+				values = Arrays.copyOf(values, size * 2);
+				factors = Arrays.copyOf(factors, size * 2);
+				relative = Arrays.copyOf(relative, size * 2);
 			}
+			attIndices[size] = attIndex;
+			values[size] = value;
+			factors[size] = factor;
+			relative[size] = relativeToDefault;
+			size++;
+		}
 
+		/**
+		 * Orders the values by decreasing factor, i.e. attribute weight. Values with
+		 * equal factors keep their order.
+		 */
+		private void sortByFactor() {
+			Integer[] order = new Integer[size];
+			for (int i = 0; i < size; i++) {
+				order[i] = i;
+			}
+			Arrays.sort(order, (a, b) -> Double.compare(factors[b], factors[a]));
+			int[] sortedAttIndices = new int[attIndices.length];
+			double[] sortedValues = new double[values.length];
+			double[] sortedFactors = new double[factors.length];
+			boolean[] sortedRelative = new boolean[relative.length];
+			for (int i = 0; i < size; i++) {
+				sortedAttIndices[i] = attIndices[order[i]];
+				sortedValues[i] = values[order[i]];
+				sortedFactors[i] = factors[order[i]];
+				sortedRelative[i] = relative[order[i]];
+			}
+			attIndices = sortedAttIndices;
+			values = sortedValues;
+			factors = sortedFactors;
+			relative = sortedRelative;
 		}
 
-		// NOTE: to save calculation time omit the denominator.
-		// this way we don't get the probabilities, but the order is still the
-		// same, as we only need
-		// the argmax
+		/**
+		 * @return the number of scored values
+		 */
+		int size() {
+			return size;
+		}
+	}
+
+	/**
+	 * Scores the classes from one index to another, see
+	 * {@link EfficientNaiveBayes#forEachClassRange(ClassRangeAction)}.
+	 */
+	@FunctionalInterface
+	private interface ClassRangeAction {
+		void score(int range, int from, int to);
+	}
+
+	/**
+	 * The class ranges of one instance. Each thread that runs it takes the next
+	 * range that has not been taken until there are none left, helpers that start
+	 * late have nothing to do.
+	 */
+	private static final class ClassRanges implements Runnable {
+		private final ClassRangeAction action;
+		private final int numClasses;
+		private final int chunkSize;
+		private final int numRanges;
+		private final AtomicInteger nextRange = new AtomicInteger();
+		private final CountDownLatch finished;
+		private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+		private ClassRanges(ClassRangeAction action, int numClasses) {
+			this.action = action;
+			this.numClasses = numClasses;
+			chunkSize = ((numClasses + PARALLEL_SCORING_THREADS) - 1) / PARALLEL_SCORING_THREADS;
+			numRanges = ((numClasses + chunkSize) - 1) / chunkSize;
+			finished = new CountDownLatch(numRanges);
+		}
+
+		@Override
+		public void run() {
+			int range;
+			while ((range = nextRange.getAndIncrement()) < numRanges) {
+				try {
+					action.score(range, range * chunkSize, Math.min((range + 1) * chunkSize, numClasses));
+				} catch (RuntimeException | Error e) {
+					failure.compareAndSet(null, e);
+				} finally {
+					finished.countDown();
+				}
+			}
+		}
+
+		/**
+		 * Waits until all ranges are scored and rethrows the first failure.
+		 */
+		private void await() {
+			boolean interrupted = false;
+			while (finished.getCount() > 0) {
+				try {
+					finished.await();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+			Throwable e = failure.get();
+			if (e instanceof RuntimeException) {
+				throw (RuntimeException) e;
+			} else if (e != null) {
+				throw (Error) e;
+			}
+		}
+	}
+
+	/**
+	 * Calculates the entry of {@link #logDistributionForInstance(Instance)} for
+	 * a single class.
+	 *
+	 * @param instance
+	 *            the instance
+	 * @param classIndex
+	 *            the class
+	 * @return the log-score of the class
+	 */
+	double logScore(Instance instance, int classIndex) {
+		if (m_UseDiscretization) {
+			m_Disc.input(instance);
+			instance = m_Disc.output();
+		}
+		double logNumerator = Math.log(m_ClassDistribution.getProbability(classIndex));
+		Enumeration<Attribute> enumAtts = instance.enumerateAttributes();
+		int attIndex = -1;
+		while (enumAtts.hasMoreElements()) {
+			attIndex++;
+			Attribute attribute = enumAtts.nextElement();
+			if (!instance.isMissing(attribute)) {
+				double logProbability = Math.log(m_Distributions[attIndex][classIndex].getProbability(instance.value(attribute)));
+				logNumerator += logProbability * attribute.weight() * instance.weight();
+			}
+		}
 		return logNumerator;
 	}
 
+	/**
+	 * A log-distribution that may not include all attributes.
+	 */
+	static final class PartialDistribution {
+		private final double[] logDistribution;
+		private final boolean complete;
+
+		PartialDistribution(double[] logDistribution, boolean complete) {
+			this.logDistribution = logDistribution;
+			this.complete = complete;
+		}
+
+		/**
+		 * @return the log-distribution
+		 */
+		double[] getLogDistribution() {
+			return logDistribution;
+		}
+
+		/**
+		 * @return whether all attributes have been scored
+		 */
+		boolean isComplete() {
+			return complete;
+		}
+	}
+
 	/**
 	 * Calculates the class membership probabilities for the given test instance.
 	 *
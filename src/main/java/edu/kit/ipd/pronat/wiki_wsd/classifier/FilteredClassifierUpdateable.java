@@ -21,10 +21,15 @@
 
 package edu.kit.ipd.pronat.wiki_wsd.classifier;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
 import weka.classifiers.Classifier;
 import weka.classifiers.UpdateableClassifier;
 import weka.classifiers.meta.FilteredClassifier;
 import weka.core.Instance;
+import weka.core.Instances;
 import weka.core.RevisionUtils;
 
 /**
@@ -93,6 +98,16 @@ public class FilteredClassifierUpdateable extends FilteredClassifier implements
 	/** for serialization. */
 	private static final long serialVersionUID = -423438402311145048L;
 
+	/** the default number of instances that are filtered at once in bulk updates. */
+	public static final int DEFAULT_UPDATE_BATCH_SIZE = 10000;
+
+	/**
+	 * the number of instances that are filtered at once in bulk updates, not
+	 * serialized to keep the field layout of classifiers written before. 0 after
+	 * deserialization, which stands for the default.
+	 */
+	protected transient int m_UpdateBatchSize = DEFAULT_UPDATE_BATCH_SIZE;
+
 	/**
 	 * Default constructor.
 	 */
@@ -163,6 +178,91 @@ public class FilteredClassifierUpdateable extends FilteredClassifier implements
 		((UpdateableClassifier) m_Classifier).updateClassifier(newInstance);
 	}
 
+	/**
+	 * Updates a classifier using all the given instances. See
+	 * {@link #updateClassifier(Iterator)}.
+	 *
+	 * @param instances
+	 *            the instances to include
+	 * @throws Exception
+	 *             if the instances could not be incorporated successfully or not
+	 *             successfully filtered
+	 */
+	public void updateClassifier(Instances instances) throws Exception {
+		updateClassifier(instances.iterator());
+	}
+
+	/**
+	 * Updates a classifier using all the instances of the given iterator. In
+	 * contrast to {@link #updateClassifier(Instance)}, the instances are pushed
+	 * through the filter in batches of {@link #getUpdateBatchSize()}, so the
+	 * filter only has to finish one batch per chunk instead of one per instance.
+	 * Each filtered batch is handed to the base classifier at once, which counts
+	 * it in parallel if it is an {@link EfficientNaiveBayes}.
+	 *
+	 * @param instances
+	 *            the instances to include
+	 * @throws Exception
+	 *             if the instances could not be incorporated successfully or not
+	 *             successfully filtered
+	 */
+	public void updateClassifier(Iterator<Instance> instances) throws Exception {
+		if (m_Filter.numPendingOutput() > 0) {
+			throw new Exception("Filter output queue not empty!");
+		}
+
+		int batchSize = getUpdateBatchSize();
+		List<Instance> batch = new ArrayList<>(batchSize);
+		while (instances.hasNext()) {
+			for (int i = 0; (i < batchSize) && instances.hasNext(); i++) {
+				// the filter may buffer the instance, it has to be available after
+				// batchFinished() anyway
+				m_Filter.input(instances.next());
+			}
+			m_Filter.batchFinished();
+			while (m_Filter.numPendingOutput() > 0) {
+				batch.add(m_Filter.output());
+			}
+
+			updateBaseClassifier(batch);
+			batch.clear();
+		}
+	}
+
+	private void updateBaseClassifier(List<Instance> instances) throws Exception {
+		if (m_Classifier instanceof EfficientNaiveBayes) {
+			((EfficientNaiveBayes) m_Classifier).updateClassifier(instances).throwIfFailed();
+		} else {
+			UpdateableClassifier classifier = (UpdateableClassifier) m_Classifier;
+			for (Instance instance : instances) {
+				classifier.updateClassifier(instance);
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of instances that are filtered at once in bulk updates.
+	 *
+	 * @return the batch size
+	 */
+	public int getUpdateBatchSize() {
+		return m_UpdateBatchSize > 0 ? m_UpdateBatchSize : DEFAULT_UPDATE_BATCH_SIZE;
+	}
+
+	/**
+	 * Sets the number of instances that are filtered at once in bulk updates. The
+	 * batch size is not serialized.
+	 *
+	 * @param value
+	 *            the batch size, has to be positive
+	 */
+	public void setUpdateBatchSize(int value) {
+		if (value <= 0) {
+			throw new IllegalArgumentException("Batch size has to be positive!");
+		}
+		m_UpdateBatchSize = value;
+	}
+
 	/**
 	 * Returns the revision string.
 	 *
@@ -0,0 +1,258 @@
+package edu.kit.ipd.pronat.wiki_wsd.classifier;
+
+import java.io.Serial;
+import java.util.Arrays;
+
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.UpdateableClassifier;
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * Naive Bayes on hashed features. The (attribute, value) pairs of string or
+ * nominal attributes are hashed together with the class into one count table
+ * of fixed size, so no {@link weka.filters.unsupervised.attribute.StringToNominal}
+ * filter and no dictionaries are needed and memory does not grow with the
+ * vocabulary. Only the class attribute has to be nominal.
+ *
+ * Colliding features share their counts. The number of distinct values of an
+ * attribute, needed for the Laplace smoothing, is estimated by linear counting
+ * with a bit set of 2^seenValueBits bits per attribute, independent of the
+ * table size. Scores are log-probabilities like in
+ * {@link EfficientNaiveBayes}, including the attribute weights. The
+ * {@link ClassifierService} ranks with these scores and can be created without
+ * a filter for this classifier.
+ *
+ * @author Jan Keim
+ * @author Sebastian Weigelt
+ *
+ */
+public class HashedNaiveBayes extends AbstractClassifier implements UpdateableClassifier {
+	@Serial
+	private static final long serialVersionUID = -3094906457803812255L;
+
+	/** Default number of bits of the table size */
+	public static final int DEFAULT_TABLE_BITS = 22;
+	/** Default number of bits of the size of the seen value bit sets */
+	public static final int DEFAULT_SEEN_VALUE_BITS = 16;
+
+	private static final long GOLDEN_RATIO = 0x9E3779B97F4A7C15L;
+
+	/** number of bits of the table size */
+	protected int m_TableBits = DEFAULT_TABLE_BITS;
+	/** number of bits of the size of the seen value bit set of each attribute */
+	protected int m_SeenValueBits = DEFAULT_SEEN_VALUE_BITS;
+
+	/** the header of the training data */
+	protected Instances m_Instances;
+	/** the counts of all (attribute, value, class) triples */
+	protected double[] m_Counts;
+	/** the sum of counts per attribute (without the class) and class */
+	protected double[][] m_Sums;
+	/** the hashed values seen per attribute (without the class) */
+	protected long[][] m_SeenValues;
+	/** the number of bits set per seen value bit set */
+	protected int[] m_NumSeenValues;
+	/** the counts of the classes */
+	protected double[] m_ClassCounts;
+	protected double m_SumOfClassCounts;
+
+	/**
+	 * @return the number of bits of the table size
+	 */
+	public int getTableBits() {
+		return m_TableBits;
+	}
+
+	/**
+	 * Sets the size of the count table to 2^tableBits entries. Takes effect with
+	 * the next {@link #buildClassifier(Instances)}.
+	 *
+	 * @param tableBits
+	 *            the number of bits of the table size
+	 */
+	public void setTableBits(int tableBits) {
+		if ((tableBits < 4) || (tableBits > 30)) {
+			throw new IllegalArgumentException("Table bits have to be between 4 and 30");
+		}
+		m_TableBits = tableBits;
+	}
+
+	/**
+	 * @return the number of bits of the size of the seen value bit sets
+	 */
+	public int getSeenValueBits() {
+		return m_SeenValueBits;
+	}
+
+	/**
+	 * Sets the size of the bit set per attribute that estimates its number of
+	 * distinct values to 2^seenValueBits bits. The estimate stays accurate up to
+	 * several times as many values. Takes effect with the next
+	 * {@link #buildClassifier(Instances)}.
+	 *
+	 * @param seenValueBits
+	 *            the number of bits of the bit set size
+	 */
+	public void setSeenValueBits(int seenValueBits) {
+		if ((seenValueBits < 6) || (seenValueBits > 30)) {
+			throw new IllegalArgumentException("Seen value bits have to be between 6 and 30");
+		}
+		m_SeenValueBits = seenValueBits;
+	}
+
+	@Override
+	public void buildClassifier(Instances instances) throws Exception {
+		if (!instances.classAttribute().isNominal()) {
+			throw new Exception("HashedNaiveBayes needs a nominal class attribute");
+		}
+		m_Instances = new Instances(instances, 0);
+		int numAttributes = instances.numAttributes() - 1;
+		int tableSize = 1 << m_TableBits;
+		m_Counts = new double[tableSize];
+		m_Sums = new double[numAttributes][instances.numClasses()];
+		m_SeenValues = new long[numAttributes][(1 << m_SeenValueBits) / Long.SIZE];
+		m_NumSeenValues = new int[numAttributes];
+		m_ClassCounts = new double[instances.numClasses()];
+		m_SumOfClassCounts = 0;
+		for (Instance instance : instances) {
+			updateClassifier(instance);
+		}
+	}
+
+	@Override
+	public synchronized void updateClassifier(Instance instance) throws Exception {
+		if (instance.classIsMissing()) {
+			return;
+		}
+		int classValue = (int) instance.classValue();
+		double weight = instance.weight();
+		int mask = m_Counts.length - 1;
+		int attIndex = -1;
+		for (int att = 0; att < instance.numAttributes(); att++) {
+			if (att == instance.classIndex()) {
+				continue;
+			}
+			attIndex++;
+			if (instance.isMissing(att)) {
+				continue;
+			}
+			long feature = HashedNaiveBayes.featureHash(attIndex, instance.stringValue(att));
+			long[] seen = m_SeenValues[attIndex];
+			int valueBit = (int) (HashedNaiveBayes.mix(feature) & ((seen.length * Long.SIZE) - 1));
+			if ((seen[valueBit >>> 6] & (1L << valueBit)) == 0) {
+				seen[valueBit >>> 6] |= 1L << valueBit;
+				m_NumSeenValues[attIndex]++;
+			}
+			m_Counts[HashedNaiveBayes.slot(feature, classValue, mask)] += weight;
+			m_Sums[attIndex][classValue] += weight;
+		}
+		m_ClassCounts[classValue] += weight;
+		m_SumOfClassCounts += weight;
+	}
+
+	private static long featureHash(int attIndex, String value) {
+		long valueHash = ((long) value.hashCode() << 32) | value.length();
+		return HashedNaiveBayes.mix(valueHash + HashedNaiveBayes.mix(attIndex + 1L));
+	}
+
+	/**
+	 * Estimates the number of distinct values of the attribute by linear counting
+	 * from the share of unset bits of its bit set.
+	 */
+	private double numValues(int attIndex) {
+		double numBits = m_SeenValues[attIndex].length * (double) Long.SIZE;
+		// a full bit set counts as one bit unset
+		double unset = Math.max(1, numBits - m_NumSeenValues[attIndex]);
+		return numBits * Math.log(numBits / unset);
+	}
+
+	private static int slot(long feature, int classValue, int mask) {
+		return (int) (HashedNaiveBayes.mix(feature + ((classValue + 1) * GOLDEN_RATIO)) & mask);
+	}
+
+	/** finalizer of MurmurHash3 */
+	private static long mix(long hash) {
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		return hash ^ (hash >>> 33);
+	}
+
+	/**
+	 * Returns the log-probabilities of the classes without the denominator, see
+	 * {@link EfficientNaiveBayes#logDistributionForInstance(Instance)}.
+	 *
+	 * @param instance
+	 *            the instance with string or nominal attributes
+	 * @return the log-distribution
+	 */
+	protected double[] logDistributionForInstance(Instance instance) {
+		int numClasses = m_ClassCounts.length;
+		int mask = m_Counts.length - 1;
+		double[] logNumerator = new double[numClasses];
+		double[] row = new double[numClasses];
+		for (int k = 0; k < numClasses; k++) {
+			logNumerator[k] = Math.log((m_ClassCounts[k] + 1) / (m_SumOfClassCounts + numClasses));
+		}
+
+		int attIndex = -1;
+		for (int att = 0; att < instance.numAttributes(); att++) {
+			if (att == instance.classIndex()) {
+				continue;
+			}
+			attIndex++;
+			if (instance.isMissing(att)) {
+				continue;
+			}
+			long feature = HashedNaiveBayes.featureHash(attIndex, instance.stringValue(att));
+			double numValues = numValues(attIndex) + 1;
+			double[] sums = m_Sums[attIndex];
+			for (int k = 0; k < numClasses; k++) {
+				row[k] = Math.log((m_Counts[HashedNaiveBayes.slot(feature, k, mask)] + 1) / (sums[k] + numValues));
+			}
+			Attribute attribute = instance.attribute(att);
+			ScoringKernel.accumulate(logNumerator, row, attribute.weight() * instance.weight());
+		}
+		return logNumerator;
+	}
+
+	@Override
+	public double classifyInstance(Instance instance) throws Exception {
+		int maxIndex = ScoringKernel.argmax(logDistributionForInstance(instance), Double.NEGATIVE_INFINITY);
+		return maxIndex >= 0 ? maxIndex : Utils.missingValue();
+	}
+
+	@Override
+	public double[] distributionForInstance(Instance instance) throws Exception {
+		double[] logNumerator = logDistributionForInstance(instance);
+		double max = Arrays.stream(logNumerator).max().orElse(Double.NEGATIVE_INFINITY);
+		double sum = 0;
+		for (double logValue : logNumerator) {
+			sum += Math.exp(logValue - max);
+		}
+		double logDenominator = max + Math.log(sum);
+		double[] probs = new double[logNumerator.length];
+		for (int k = 0; k < probs.length; k++) {
+			probs[k] = Math.exp(logNumerator[k] - logDenominator);
+		}
+		return probs;
+	}
+
+	/**
+	 * @return the memory of the count tables in bytes
+	 */
+	public long getTableBytes() {
+		long bytes = (long) m_Counts.length * Double.BYTES;
+		for (double[] sums : m_Sums) {
+			bytes += (long) sums.length * Double.BYTES;
+		}
+		for (long[] seen : m_SeenValues) {
+			bytes += (long) seen.length * Long.BYTES;
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,97 @@
+package edu.kit.ipd.pronat.wiki_wsd.classifier;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+
+import weka.classifiers.Classifier;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.filters.Filter;
+import weka.filters.unsupervised.attribute.StringToNominal;
+
+/**
+ * Compares accuracy, training time and classification throughput of
+ * {@link HashedNaiveBayes} with different table sizes against
+ * {@link EfficientNaiveBayes}. The EfficientNaiveBayes is trained on data
+ * filtered with {@link StringToNominal}, the hashed variants only get a nominal
+ * class.
+ *
+ * Usage: HashedNaiveBayesBenchmark trainingInstances testInstances
+ * [tableBits...]
+ *
+ * with unfiltered instances (see
+ * {@link ClassifierService#getEmptyInstancesHeader()}) serialized by
+ * {@link SerializationHelper#serializeInstances(Instances, String)}.
+ *
+ * @author Jan Keim
+ * @author Sebastian Weigelt
+ *
+ */
+public class HashedNaiveBayesBenchmark {
+	private static final int[] DEFAULT_TABLE_BITS = { 16, 18, 20, 22, 24 };
+
+	private HashedNaiveBayesBenchmark() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("Usage: HashedNaiveBayesBenchmark trainingInstances testInstances [tableBits...]");
+			return;
+		}
+		Instances training;
+		Instances test;
+		try (InputStream trainingInput = new FileInputStream(args[0]); InputStream testInput = new FileInputStream(args[1])) {
+			training = SerializationHelper.deserializeInstances(trainingInput).orElseThrow();
+			test = SerializationHelper.deserializeInstances(testInput).orElseThrow();
+		}
+		int[] tableBits = DEFAULT_TABLE_BITS;
+		if (args.length > 2) {
+			tableBits = new int[args.length - 2];
+			for (int i = 2; i < args.length; i++) {
+				tableBits[i - 2] = Integer.parseInt(args[i]);
+			}
+		}
+
+		StringToNominal allAttributes = new StringToNominal();
+		allAttributes.setAttributeRange("first-last");
+		allAttributes.setInputFormat(training);
+		HashedNaiveBayesBenchmark.run("EfficientNaiveBayes", new EfficientNaiveBayes(), Filter.useFilter(training, allAttributes),
+				Filter.useFilter(test, allAttributes));
+
+		StringToNominal classOnly = new StringToNominal();
+		classOnly.setAttributeRange(Integer.toString(training.classIndex() + 1));
+		classOnly.setInputFormat(training);
+		Instances hashedTraining = Filter.useFilter(training, classOnly);
+		Instances hashedTest = Filter.useFilter(test, classOnly);
+		for (int bits : tableBits) {
+			HashedNaiveBayes classifier = new HashedNaiveBayes();
+			classifier.setTableBits(bits);
+			HashedNaiveBayesBenchmark.run("HashedNaiveBayes 2^" + bits, classifier, hashedTraining, hashedTest);
+		}
+	}
+
+	private static void run(String name, Classifier classifier, Instances training, Instances test) throws Exception {
+		long start = System.nanoTime();
+		classifier.buildClassifier(training);
+		long trainingNanos = System.nanoTime() - start;
+
+		int correct = 0;
+		int total = 0;
+		start = System.nanoTime();
+		for (Instance instance : test) {
+			double prediction = classifier.classifyInstance(instance);
+			if (!instance.classIsMissing()) {
+				total++;
+				if (prediction == instance.classValue()) {
+					correct++;
+				}
+			}
+		}
+		long testNanos = System.nanoTime() - start;
+
+		String memory = classifier instanceof HashedNaiveBayes ? String.format(", tables %.1f MB", ((HashedNaiveBayes) classifier).getTableBytes() / 1e6)
+				: "";
+		System.out.println(String.format("%s: accuracy %.4f (%d/%d), training %.1f s, %.0f classifications/s%s", name,
+				total == 0 ? 0 : correct / (double) total, correct, total, trainingNanos / 1e9, test.size() / (testNanos / 1e9), memory));
+	}
+}
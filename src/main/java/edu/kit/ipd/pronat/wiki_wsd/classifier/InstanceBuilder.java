@@ -1,8 +1,15 @@
 package edu.kit.ipd.pronat.wiki_wsd.classifier;
 
+import java.util.Collection;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import weka.core.Attribute;
 import weka.core.DenseInstance;
 import weka.core.Instance;
 import weka.core.Instances;
+import weka.core.SparseInstance;
 
 /**
  * @author Jan Keim
@@ -12,6 +19,11 @@ import weka.core.Instances;
 public class InstanceBuilder {
 	private Instance instance;
 	private static final String NONE_VAL = "NONE";
+	/**
+	 * indices of the frequent word attributes of the context with their present
+	 * value, null if not set
+	 */
+	private SortedMap<Integer, Integer> contextWords;
 
 	public InstanceBuilder(Instances header) {
 		instance = new DenseInstance(header.numAttributes());
@@ -20,8 +32,76 @@ public class InstanceBuilder {
 
 	}
 
+	/**
+	 * Builds the instance. If context words were set, the instance is a
+	 * {@link SparseInstance} that only stores the frequent words of the context,
+	 * all other frequent words are absent.
+	 *
+	 * @return the instance
+	 */
 	public Instance build() {
-		return instance;
+		if (contextWords == null) {
+			return instance;
+		}
+		int firstFrequent = InstanceBuilder.firstFrequentWord(instance.dataset());
+		int numStored = firstFrequent + contextWords.size();
+		double[] values = new double[numStored];
+		int[] indices = new int[numStored];
+		// the other attributes are stored even if missing or 0
+		for (int i = 0; i < firstFrequent; i++) {
+			indices[i] = i;
+			values[i] = instance.value(i);
+		}
+		int position = firstFrequent;
+		for (Map.Entry<Integer, Integer> contextWord : contextWords.entrySet()) {
+			indices[position] = contextWord.getKey();
+			values[position] = contextWord.getValue();
+			position++;
+		}
+		Instance sparse = new SparseInstance(instance.weight(), values, indices, instance.numAttributes());
+		sparse.setDataset(instance.dataset());
+		return sparse;
+	}
+
+	/**
+	 * Sets the bag-of-words context: the lemmas of the context whose frequent
+	 * word attribute ({@link EfficientNaiveBayes#FREQUENT_WORD_PREFIX} followed
+	 * by the lemma) should be present. Lemmas without such an attribute are
+	 * ignored.
+	 *
+	 * @param words
+	 *            the lemmas of the context
+	 * @return this builder
+	 * @throws IllegalArgumentException
+	 *             if a frequent word attribute is not nominal with
+	 *             {@link EfficientNaiveBayes#FREQUENT_WORD_ABSENT} as first value
+	 *             and with {@link EfficientNaiveBayes#FREQUENT_WORD_PRESENT}, as
+	 *             absent words are left out of the sparse instance
+	 */
+	public InstanceBuilder setContextWords(Collection<String> words) {
+		contextWords = new TreeMap<>();
+		Instances header = instance.dataset();
+		for (String word : words) {
+			Attribute attribute = header.attribute(EfficientNaiveBayes.FREQUENT_WORD_PREFIX + word);
+			if (attribute == null) {
+				continue;
+			}
+			if (!EfficientNaiveBayes.isSparseFrequentWord(attribute)) {
+				throw new IllegalArgumentException("Attribute " + attribute.name() + " is not nominal with the values "
+						+ EfficientNaiveBayes.FREQUENT_WORD_ABSENT + " (first) and " + EfficientNaiveBayes.FREQUENT_WORD_PRESENT);
+			}
+			contextWords.put(attribute.index(), attribute.indexOfValue(EfficientNaiveBayes.FREQUENT_WORD_PRESENT));
+		}
+		return this;
+	}
+
+	private static int firstFrequentWord(Instances header) {
+		for (int i = 0; i < header.numAttributes(); i++) {
+			if (header.attribute(i).name().startsWith(EfficientNaiveBayes.FREQUENT_WORD_PREFIX)) {
+				return i;
+			}
+		}
+		return header.numAttributes();
 	}
 
 	public InstanceBuilder setActualWordWithPOS(String lemma, String pos) {
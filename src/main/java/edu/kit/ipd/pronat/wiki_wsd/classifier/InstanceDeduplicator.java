@@ -0,0 +1,106 @@
+package edu.kit.ipd.pronat.wiki_wsd.classifier;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SparseInstance;
+
+/**
+ * Collapses identical instances into one instance whose weight is the sum of
+ * the weights of the originals. As {@link EfficientNaiveBayes} only counts
+ * weighted values, a classifier trained on the deduplicated instances is the
+ * same as one trained on the originals, but training and storing them is
+ * cheaper by the duplication ratio.
+ *
+ * @author Jan Keim
+ * @author Sebastian Weigelt
+ *
+ */
+public final class InstanceDeduplicator {
+
+	private InstanceDeduplicator() {
+	}
+
+	/**
+	 * Deduplicates the instances in parallel. Two instances are identical if all
+	 * their attribute values, including the class, are identical. The unique
+	 * instances keep the order of their first occurrence.
+	 *
+	 * @param instances
+	 *            the instances to deduplicate
+	 * @return new instances with the same header, containing each distinct
+	 *         instance once with the summed weight
+	 */
+	public static Instances deduplicate(Instances instances) {
+		ConcurrentHashMap<UniqueInstance, UniqueInstance> unique = new ConcurrentHashMap<>();
+		IntStream.range(0, instances.size()).parallel().forEach(index -> {
+			Instance instance = instances.get(index);
+			UniqueInstance candidate = new UniqueInstance(instance.toDoubleArray(), index, instance.weight(), instance instanceof SparseInstance);
+			unique.merge(candidate, candidate, UniqueInstance::merge);
+		});
+
+		Instances deduplicated = new Instances(instances, unique.size());
+		unique.values().stream().sorted(Comparator.comparingInt(u -> u.firstIndex)).forEachOrdered(u -> deduplicated.add(u.toInstance()));
+		return deduplicated;
+	}
+
+	/**
+	 * @param instances
+	 *            the instances
+	 * @return the number of instances divided by the number of distinct
+	 *         instances
+	 */
+	public static double duplicationRatio(Instances instances) {
+		long distinct = instances.parallelStream().map(instance -> new UniqueInstance(instance.toDoubleArray(), 0, 0, false)).distinct().count();
+		return distinct == 0 ? 1 : instances.size() / (double) distinct;
+	}
+
+	private static final class UniqueInstance {
+		private final double[] values;
+		private final int hash;
+		private final boolean sparse;
+		private int firstIndex;
+		private double weight;
+
+		private UniqueInstance(double[] values, int firstIndex, double weight, boolean sparse) {
+			this.values = values;
+			hash = Arrays.hashCode(values);
+			this.firstIndex = firstIndex;
+			this.weight = weight;
+			this.sparse = sparse;
+		}
+
+		/** Called atomically by the map for the existing entry */
+		private UniqueInstance merge(UniqueInstance other) {
+			weight += other.weight;
+			firstIndex = Math.min(firstIndex, other.firstIndex);
+			return this;
+		}
+
+		private Instance toInstance() {
+			return sparse ? new SparseInstance(weight, values) : new DenseInstance(weight, values);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof UniqueInstance)) {
+				return false;
+			}
+			UniqueInstance other = (UniqueInstance) obj;
+			return (hash == other.hash) && Arrays.equals(values, other.values);
+		}
+	}
+}
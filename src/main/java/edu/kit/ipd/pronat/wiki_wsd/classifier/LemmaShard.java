@@ -0,0 +1,76 @@
+package edu.kit.ipd.pronat.wiki_wsd.classifier;
+
+import java.io.Serial;
+import java.io.Serializable;
+
+import weka.core.Instance;
+import weka.estimators.Estimator;
+
+/**
+ * The part of an {@link EfficientNaiveBayes} that is needed to classify the
+ * instances of one actualWord: a subset of the classes with their log class
+ * priors and conditional estimators. See {@link ShardedModel}.
+ *
+ * @author Jan Keim
+ * @author Sebastian Weigelt
+ *
+ */
+final class LemmaShard implements Serializable {
+	@Serial
+	private static final long serialVersionUID = 5377216350307716085L;
+
+	/** global indices of the classes of this shard */
+	private final int[] classes;
+	private final double[] logClassPriors;
+	/** indexed by attribute (without the class) and local class */
+	private final Estimator[][] distributions;
+
+	private LemmaShard(int[] classes, double[] logClassPriors, Estimator[][] distributions) {
+		this.classes = classes;
+		this.logClassPriors = logClassPriors;
+		this.distributions = distributions;
+	}
+
+	/**
+	 * Slices the given classes out of the model. The estimators are shared with
+	 * the model.
+	 */
+	static LemmaShard of(EfficientNaiveBayes model, int[] classes) {
+		Estimator[][] modelDistributions = model.getDistributions();
+		Estimator[][] distributions = new Estimator[modelDistributions.length][classes.length];
+		double[] logClassPriors = new double[classes.length];
+		for (int k = 0; k < classes.length; k++) {
+			logClassPriors[k] = Math.log(model.getClassDistribution().getProbability(classes[k]));
+			for (int att = 0; att < modelDistributions.length; att++) {
+				distributions[att][k] = modelDistributions[att][classes[k]];
+			}
+		}
+		return new LemmaShard(classes, logClassPriors, distributions);
+	}
+
+	/**
+	 * Scores the classes of this shard like
+	 * {@link EfficientNaiveBayes#logDistributionForInstance(Instance)} and writes
+	 * the scores to their global indices. Other entries are left untouched.
+	 *
+	 * @param instance
+	 *            the filtered instance
+	 * @param logDistribution
+	 *            the distribution over all classes
+	 */
+	void score(Instance instance, double[] logDistribution) {
+		EfficientNaiveBayes.ScoredValues scored = EfficientNaiveBayes.ScoredValues.of(instance);
+		double[] logNumerator = logClassPriors.clone();
+		EfficientNaiveBayes.scoreValues(distributions, scored, 0, scored.size(), 0, classes.length, logNumerator);
+		for (int k = 0; k < classes.length; k++) {
+			logDistribution[classes[k]] = logNumerator[k];
+		}
+	}
+
+	/**
+	 * @return the number of classes of this shard
+	 */
+	int numClasses() {
+		return classes.length;
+	}
+}
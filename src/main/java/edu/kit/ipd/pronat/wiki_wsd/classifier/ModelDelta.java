@@ -0,0 +1,313 @@
+package edu.kit.ipd.pronat.wiki_wsd.classifier;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import weka.estimators.Estimator;
+
+/**
+ * The difference between two versions of an {@link EfficientNaiveBayes} with
+ * the same attributes and classes, e.g. before and after updating it with new
+ * data. Only the estimators that changed are recorded, with their new sums and
+ * the new counts of the changed symbols. Applying the delta to the base
+ * version results in the updated version, so updates can be distributed as
+ * deltas instead of whole models.
+ *
+ * The versions are identified by a fingerprint of all counts; a delta is only
+ * applied to a model with the base fingerprint, and the result has to have the
+ * target fingerprint.
+ *
+ * Usage: ModelDelta create baseModel updatedModel deltaFile<br>
+ * or: ModelDelta apply baseModel deltaFile... outputModel
+ *
+ * @author Jan Keim
+ * @author Sebastian Weigelt
+ *
+ */
+public class ModelDelta implements Serializable {
+	@Serial
+	private static final long serialVersionUID = 2620851547689150166L;
+
+	/** attribute index used for the class distribution */
+	static final int CLASS_DISTRIBUTION = -1;
+
+	private final long baseFingerprint;
+	private final long targetFingerprint;
+	private final List<EstimatorDelta> estimatorDeltas;
+
+	ModelDelta(long baseFingerprint, long targetFingerprint, List<EstimatorDelta> estimatorDeltas) {
+		this.baseFingerprint = baseFingerprint;
+		this.targetFingerprint = targetFingerprint;
+		this.estimatorDeltas = estimatorDeltas;
+	}
+
+	/**
+	 * Creates the delta from the base to the updated model.
+	 *
+	 * @param base
+	 *            the base version
+	 * @param updated
+	 *            the updated version
+	 * @return the delta
+	 * @throws IllegalArgumentException
+	 *             if the models have different attributes or classes
+	 */
+	public static ModelDelta create(EfficientNaiveBayes base, EfficientNaiveBayes updated) {
+		Estimator[][] baseDistributions = base.getDistributions();
+		Estimator[][] updatedDistributions = updated.getDistributions();
+		if ((baseDistributions.length != updatedDistributions.length) || (base.getNumClasses() != updated.getNumClasses())) {
+			throw new IllegalArgumentException("Models have different attributes or classes");
+		}
+
+		List<EstimatorDelta> deltas = IntStream.range(0, baseDistributions.length).parallel().boxed().flatMap(attIndex -> {
+			List<EstimatorDelta> attributeDeltas = new ArrayList<>();
+			for (int classIndex = 0; classIndex < base.getNumClasses(); classIndex++) {
+				EstimatorDelta delta = EstimatorDelta.create(attIndex, classIndex, (SparseDiscreteEstimator) baseDistributions[attIndex][classIndex],
+						(SparseDiscreteEstimator) updatedDistributions[attIndex][classIndex]);
+				if (delta != null) {
+					attributeDeltas.add(delta);
+				}
+			}
+			return attributeDeltas.stream();
+		}).collect(Collectors.toCollection(ArrayList::new));
+		EstimatorDelta classDelta = EstimatorDelta.create(CLASS_DISTRIBUTION, 0, base.getClassDistribution(), updated.getClassDistribution());
+		if (classDelta != null) {
+			deltas.add(classDelta);
+		}
+		return new ModelDelta(ModelDelta.fingerprint(base), ModelDelta.fingerprint(updated), deltas);
+	}
+
+	/**
+	 * Applies the delta to the model in place.
+	 *
+	 * @param model
+	 *            the base version of the model
+	 * @throws IllegalArgumentException
+	 *             if the model is not the base version of this delta
+	 * @throws IllegalStateException
+	 *             if the result is not the target version, the model is restored
+	 *             to the base version in that case
+	 */
+	public void applyTo(EfficientNaiveBayes model) {
+		if (ModelDelta.fingerprint(model) != baseFingerprint) {
+			throw new IllegalArgumentException("Model is not the base version of the delta");
+		}
+		Estimator[][] distributions = model.getDistributions();
+		List<EstimatorDelta> previous = estimatorDeltas.parallelStream()
+				.map(delta -> EstimatorDelta.of(delta.attIndex, delta.classIndex, ModelDelta.estimatorOf(model, distributions, delta), delta.symbols))
+				.collect(Collectors.toList());
+		estimatorDeltas.parallelStream().forEach(delta -> delta.applyTo(ModelDelta.estimatorOf(model, distributions, delta)));
+		if (ModelDelta.fingerprint(model) != targetFingerprint) {
+			previous.parallelStream().forEach(delta -> delta.applyTo(ModelDelta.estimatorOf(model, distributions, delta)));
+			model.countsChanged();
+			throw new IllegalStateException("Applying the delta did not result in its target version, the delta has been rolled back");
+		}
+		model.countsChanged();
+	}
+
+	private static SparseDiscreteEstimator estimatorOf(EfficientNaiveBayes model, Estimator[][] distributions, EstimatorDelta delta) {
+		return delta.attIndex == CLASS_DISTRIBUTION ? model.getClassDistribution()
+				: (SparseDiscreteEstimator) distributions[delta.attIndex][delta.classIndex];
+	}
+
+	/**
+	 * @return the fingerprint of the model this delta applies to
+	 */
+	public long getBaseFingerprint() {
+		return baseFingerprint;
+	}
+
+	/**
+	 * @return the fingerprint of the model after applying this delta
+	 */
+	public long getTargetFingerprint() {
+		return targetFingerprint;
+	}
+
+	/**
+	 * @return the number of changed estimators
+	 */
+	public int getNumChangedEstimators() {
+		return estimatorDeltas.size();
+	}
+
+	/**
+	 * Computes the fingerprint of a model from all its counts. The fingerprint is
+	 * a sum of one term per estimator state and per count, so it can be updated
+	 * from the changed entries alone (see {@link #stateFingerprint(long, double, int)}
+	 * and {@link #countFingerprint(long, int, double, double)}).
+	 *
+	 * @param model
+	 *            the model
+	 * @return the fingerprint
+	 */
+	public static long fingerprint(EfficientNaiveBayes model) {
+		Estimator[][] distributions = model.getDistributions();
+		int numClasses = model.getNumClasses();
+		long fingerprint = IntStream.range(0, distributions.length).parallel().mapToLong(attIndex -> {
+			long attributeFingerprint = 0;
+			for (int classIndex = 0; classIndex < numClasses; classIndex++) {
+				attributeFingerprint += ModelDelta.fingerprint(ModelDelta.position(attIndex, classIndex, numClasses),
+						(SparseDiscreteEstimator) distributions[attIndex][classIndex]);
+			}
+			return attributeFingerprint;
+		}).sum();
+		return numClasses + fingerprint + ModelDelta.fingerprint(ModelDelta.position(CLASS_DISTRIBUTION, 0, numClasses), model.getClassDistribution());
+	}
+
+	private static long fingerprint(long position, SparseDiscreteEstimator estimator) {
+		double prior = estimator.getPrior();
+		long[] fingerprint = { ModelDelta.stateFingerprint(position, estimator.getSumOfCounts(), estimator.getNumSymbols()) };
+		estimator.forEachCount((symbol, count) -> fingerprint[0] += ModelDelta.countFingerprint(position, symbol, count, prior));
+		return fingerprint[0];
+	}
+
+	/**
+	 * @return the position of the estimator in the fingerprint, -1 for the class
+	 *         distribution
+	 */
+	static long position(int attIndex, int classIndex, int numClasses) {
+		return attIndex == CLASS_DISTRIBUTION ? -1 : ((long) attIndex * numClasses) + classIndex;
+	}
+
+	/**
+	 * @return the term of the sum and the number of symbols of the estimator at
+	 *         the position
+	 */
+	static long stateFingerprint(long position, double sumOfCounts, int numSymbols) {
+		return ModelDelta.mix(ModelDelta.mix(ModelDelta.mix(~position) + Double.doubleToLongBits(sumOfCounts)) + numSymbols);
+	}
+
+	/**
+	 * @return the term of a count of the estimator at the position, 0 if the
+	 *         count is the prior, so stored and not stored priors are equal
+	 */
+	static long countFingerprint(long position, int symbol, double count, double prior) {
+		if (count == prior) {
+			return 0;
+		}
+		return ModelDelta.mix(ModelDelta.mix((position << 32) ^ symbol) + Double.doubleToLongBits(count));
+	}
+
+	/**
+	 * The finalizer of MurmurHash3, spreads the bits so that sums of hashes rarely
+	 * collide.
+	 */
+	private static long mix(long value) {
+		long h = value;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if ((args.length == 4) && "create".equals(args[0])) {
+			EfficientNaiveBayes base = ModelDelta.load(args[1]);
+			EfficientNaiveBayes updated = ModelDelta.load(args[2]);
+			ModelDelta delta = ModelDelta.create(base, updated);
+			SerializationHelper.serializeModelDelta(delta, args[3]);
+			System.out.println("Delta with " + delta.getNumChangedEstimators() + " changed estimators written to " + args[3]);
+		} else if ((args.length >= 4) && "apply".equals(args[0])) {
+			EfficientNaiveBayes model = ModelDelta.load(args[1]);
+			for (int i = 2; i < (args.length - 1); i++) {
+				try (InputStream input = new FileInputStream(args[i])) {
+					SerializationHelper.deserializeModelDelta(input).orElseThrow().applyTo(model);
+				}
+			}
+			SerializationHelper.serializeEfficientNaiveBayesClassifier(model, args[args.length - 1]);
+		} else {
+			System.err.println("Usage: ModelDelta create baseModel updatedModel deltaFile");
+			System.err.println("   or: ModelDelta apply baseModel deltaFile... outputModel");
+		}
+	}
+
+	private static EfficientNaiveBayes load(String file) throws IOException {
+		try (InputStream input = new FileInputStream(file)) {
+			return SerializationHelper.deserializeEfficientNaiveBayesClassifier(input).orElseThrow();
+		}
+	}
+
+	/**
+	 * The new state of one changed estimator.
+	 */
+	static final class EstimatorDelta implements Serializable {
+		@Serial
+		private static final long serialVersionUID = -1805357604300981773L;
+
+		private final int attIndex;
+		private final int classIndex;
+		private final int numSymbols;
+		private final double sumOfCounts;
+		private final int[] symbols;
+		private final double[] counts;
+
+		EstimatorDelta(int attIndex, int classIndex, int numSymbols, double sumOfCounts, int[] symbols, double[] counts) {
+			this.attIndex = attIndex;
+			this.classIndex = classIndex;
+			this.numSymbols = numSymbols;
+			this.sumOfCounts = sumOfCounts;
+			this.symbols = symbols;
+			this.counts = counts;
+		}
+
+		/**
+		 * Returns the delta between the estimators or null if they are equal. The
+		 * counts are always compared, they can change while the sum stays the same.
+		 */
+		private static EstimatorDelta create(int attIndex, int classIndex, SparseDiscreteEstimator base, SparseDiscreteEstimator updated) {
+			TreeMap<Integer, Double> changed = new TreeMap<>();
+			updated.forEachCount((symbol, count) -> {
+				if (base.countOf(symbol) != count) {
+					changed.put(symbol, count);
+				}
+			});
+			base.forEachCount((symbol, count) -> {
+				double updatedCount = updated.countOf(symbol);
+				if (updatedCount != count) {
+					changed.put(symbol, updatedCount);
+				}
+			});
+			if (changed.isEmpty() && (base.getSumOfCounts() == updated.getSumOfCounts()) && (base.getNumSymbols() == updated.getNumSymbols())) {
+				return null;
+			}
+			return EstimatorDelta.of(attIndex, classIndex, updated, changed.keySet());
+		}
+
+		/**
+		 * Records the current state of the given symbols of the estimator.
+		 */
+		static EstimatorDelta of(int attIndex, int classIndex, SparseDiscreteEstimator estimator, Collection<Integer> symbols) {
+			return EstimatorDelta.of(attIndex, classIndex, estimator, symbols.stream().mapToInt(Integer::intValue).toArray());
+		}
+
+		private static EstimatorDelta of(int attIndex, int classIndex, SparseDiscreteEstimator estimator, int[] changedSymbols) {
+			double[] changedCounts = new double[changedSymbols.length];
+			for (int i = 0; i < changedSymbols.length; i++) {
+				changedCounts[i] = estimator.countOf(changedSymbols[i]);
+			}
+			return new EstimatorDelta(attIndex, classIndex, estimator.getNumSymbols(), estimator.getSumOfCounts(), changedSymbols, changedCounts);
+		}
+
+		void applyTo(SparseDiscreteEstimator estimator) {
+			synchronized (estimator) {
+				estimator.setNumSymbols(numSymbols);
+				for (int i = 0; i < symbols.length; i++) {
+					estimator.putCount(symbols[i], counts[i]);
+				}
+				estimator.setSumOfCounts(sumOfCounts);
+			}
+		}
+	}
+}
@@ -0,0 +1,275 @@
+package edu.kit.ipd.pronat.wiki_wsd.classifier;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.estimators.Estimator;
+
+/**
+ * Table of the actualWords whose most frequent sense wins for every context.
+ * For each actualWord it stores the dominant sense and a lower bound of the
+ * score margin to every other sense that holds for all values (including
+ * missing ones) of the other attributes. If the bound is positive for an
+ * instance, the {@link EfficientNaiveBayes} would classify it as the dominant
+ * sense, so the scoring can be skipped.
+ *
+ * The score of sense k is log P(k) + w * (w1 * log p(v|k) + Sum_a w_a * log
+ * p(x_a|k)) with the instance weight w, the actualWord v and the attribute
+ * weights w1 and w_a. With lower and upper bounds L_k and U_k of the sum over
+ * the context attributes, the margin of the dominant sense d to a sense c is
+ * at least (log P(d) - log P(c)) + w * (w1 * (log p(v|d) - log p(v|c)) + L_d -
+ * U_c). The table stores the minimum of both parts over all c, so the bound
+ * is evaluated in constant time for any instance weight.
+ *
+ * The table only applies to instances with the attribute weights it was built
+ * with and to the version of the counts it was built from, see
+ * {@link #isCurrent(EfficientNaiveBayes)}. It has to be rebuilt after the
+ * model has been updated.
+ *
+ * @author Jan Keim
+ * @author Sebastian Weigelt
+ *
+ */
+final class MostFrequentSenseTable {
+	/** Name of the attribute the table is indexed by */
+	static final String ACTUAL_WORD = "actualWord";
+
+	/** the version of the counts of the model the table was built from */
+	private final long countsVersion;
+	/** index of the actualWord in the distributions */
+	private final int actualWordIndex;
+	/** weights of the attributes (without the class) the bounds assume */
+	private final double[] weights;
+	/** per actualWord: the dominant sense or -1 */
+	private final int[] senses;
+	/** per actualWord: the minimal difference of the log class priors */
+	private final double[] priorMargins;
+	/** per actualWord: the minimal difference of the attribute scores */
+	private final double[] attributeMargins;
+	private final int numEntries;
+
+	private MostFrequentSenseTable(long countsVersion, int actualWordIndex, double[] weights, int[] senses, double[] priorMargins,
+			double[] attributeMargins) {
+		this.countsVersion = countsVersion;
+		this.actualWordIndex = actualWordIndex;
+		this.weights = weights;
+		this.senses = senses;
+		this.priorMargins = priorMargins;
+		this.attributeMargins = attributeMargins;
+		int entries = 0;
+		for (int sense : senses) {
+			if (sense >= 0) {
+				entries++;
+			}
+		}
+		numEntries = entries;
+	}
+
+	/**
+	 * Builds the table from the estimators of the model.
+	 *
+	 * @param model
+	 *            the trained model
+	 * @param actualWordWeight
+	 *            the weight of the actualWord attribute used for classification,
+	 *            the other weights are taken from the training header
+	 * @return the table
+	 */
+	static MostFrequentSenseTable build(EfficientNaiveBayes model, double actualWordWeight) {
+		if (model.getUseSupervisedDiscretization()) {
+			throw new IllegalArgumentException("Not supported with supervised discretization");
+		}
+		// read before the counts, a table built during an update is outdated after it
+		long countsVersion = model.getCountsVersion();
+		Estimator[][] distributions = model.getDistributions();
+		int numClasses = model.getNumClasses();
+
+		int actualWordIndex = -1;
+		double[] weights = new double[distributions.length];
+		Enumeration<Attribute> enumAtts = model.getTrainingHeader().enumerateAttributes();
+		int attIndex = -1;
+		while (enumAtts.hasMoreElements()) {
+			attIndex++;
+			Attribute attribute = enumAtts.nextElement();
+			weights[attIndex] = attribute.weight();
+			if (attribute.name().equals(ACTUAL_WORD)) {
+				actualWordIndex = attIndex;
+				weights[attIndex] = actualWordWeight;
+			}
+			if (weights[attIndex] < 0) {
+				throw new IllegalArgumentException("Negative weight of attribute " + attribute.name());
+			}
+		}
+		if (actualWordIndex < 0) {
+			throw new IllegalArgumentException("The model has no attribute " + ACTUAL_WORD);
+		}
+
+		double[] logPriors = new double[numClasses];
+		// bounds of the weighted sum of the context attributes
+		double[] lower = new double[numClasses];
+		double[] upper = new double[numClasses];
+		for (int k = 0; k < numClasses; k++) {
+			logPriors[k] = Math.log(model.getClassDistribution().getProbability(k));
+			for (int att = 0; att < distributions.length; att++) {
+				if ((att == actualWordIndex) || (weights[att] == 0)) {
+					continue;
+				}
+				SparseDiscreteEstimator estimator = (SparseDiscreteEstimator) distributions[att][k];
+				// log(1/n) lies between the smallest and the largest probability, so the
+				// bounds of each attribute can be summed independently per class
+				double reference = -Math.log(estimator.getNumSymbols());
+				double[] bounds = MostFrequentSenseTable.logProbabilityBounds(estimator);
+				lower[k] += weights[att] * Math.min(bounds[0], reference);
+				upper[k] += weights[att] * Math.max(bounds[1], reference);
+			}
+		}
+
+		// senses that have seen the actualWord, with their log-probabilities
+		int numWords = ((SparseDiscreteEstimator) distributions[actualWordIndex][0]).getNumSymbols();
+		List<List<double[]>> seen = new ArrayList<>(numWords);
+		for (int v = 0; v < numWords; v++) {
+			seen.add(null);
+		}
+		double[] unseenScores = new double[numClasses];
+		for (int k = 0; k < numClasses; k++) {
+			SparseDiscreteEstimator estimator = (SparseDiscreteEstimator) distributions[actualWordIndex][k];
+			double sum = estimator.getSumOfCounts();
+			int sense = k;
+			estimator.forEachCount((symbol, count) -> {
+				if ((symbol >= 0) && (symbol < numWords)) {
+					if (seen.get(symbol) == null) {
+						seen.set(symbol, new ArrayList<>(2));
+					}
+					seen.get(symbol).add(new double[] { sense, Math.log(count / sum) });
+				}
+			});
+			unseenScores[k] = (weights[actualWordIndex] * Math.log(estimator.getPrior() / sum)) + upper[k];
+		}
+		int[] topPriors = ScoringKernel.topK(logPriors, 2, Double.NEGATIVE_INFINITY);
+		int[] topUnseen = ScoringKernel.topK(unseenScores, 2, Double.NEGATIVE_INFINITY);
+
+		int[] senses = new int[numWords];
+		double[] priorMargins = new double[numWords];
+		double[] attributeMargins = new double[numWords];
+		Arrays.fill(senses, -1);
+		for (int v = 0; v < numWords; v++) {
+			List<double[]> entries = seen.get(v);
+			if ((entries == null) || (numClasses < 2)) {
+				continue;
+			}
+			// the sense with the best worst case
+			int dominant = -1;
+			double best = Double.NEGATIVE_INFINITY;
+			for (double[] entry : entries) {
+				int k = (int) entry[0];
+				double score = logPriors[k] + (weights[actualWordIndex] * entry[1]) + lower[k];
+				if (score > best) {
+					best = score;
+					dominant = k;
+				}
+			}
+			if (dominant < 0) {
+				continue;
+			}
+			double dominantScore = 0;
+			double competitor = MostFrequentSenseTable.maxExcluding(unseenScores, topUnseen, dominant);
+			for (double[] entry : entries) {
+				int k = (int) entry[0];
+				if (k == dominant) {
+					dominantScore = weights[actualWordIndex] * entry[1];
+				} else {
+					competitor = Math.max(competitor, (weights[actualWordIndex] * entry[1]) + upper[k]);
+				}
+			}
+			double priorMargin = logPriors[dominant] - MostFrequentSenseTable.maxExcluding(logPriors, topPriors, dominant);
+			double attributeMargin = (dominantScore + lower[dominant]) - competitor;
+			if ((priorMargin > 0) || (attributeMargin > 0)) {
+				senses[v] = dominant;
+				priorMargins[v] = priorMargin;
+				attributeMargins[v] = attributeMargin;
+			}
+		}
+		return new MostFrequentSenseTable(countsVersion, actualWordIndex, weights, senses, priorMargins, attributeMargins);
+	}
+
+	/**
+	 * @return the highest of the top values that is not the excluded one
+	 */
+	private static double maxExcluding(double[] values, int[] top, int excluded) {
+		for (int index : top) {
+			if (index != excluded) {
+				return values[index];
+			}
+		}
+		return Double.NEGATIVE_INFINITY;
+	}
+
+	/**
+	 * @return the smallest and the largest log-probability of the estimator
+	 */
+	private static double[] logProbabilityBounds(SparseDiscreteEstimator estimator) {
+		double sum = estimator.getSumOfCounts();
+		if (sum <= 0) {
+			// getProbability is 0 for all values
+			return new double[] { Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+		}
+		// values without a stored count have the prior
+		double[] counts = { estimator.getPrior(), estimator.getPrior() };
+		estimator.forEachCount((symbol, count) -> {
+			counts[0] = Math.min(counts[0], count);
+			counts[1] = Math.max(counts[1], count);
+		});
+		return new double[] { Math.log(counts[0] / sum), Math.log(counts[1] / sum) };
+	}
+
+	/**
+	 * @param model
+	 *            the model the table was built from
+	 * @return whether the counts of the model have not changed since the table
+	 *         was built
+	 */
+	boolean isCurrent(EfficientNaiveBayes model) {
+		return model.getCountsVersion() == countsVersion;
+	}
+
+	/**
+	 * Returns the sense the model would classify the filtered instance as, if
+	 * the margin bound of its actualWord proves it. The table has to be current,
+	 * see {@link #isCurrent(EfficientNaiveBayes)}.
+	 *
+	 * @param instance
+	 *            the filtered instance
+	 * @return the index of the sense or -1 if the instance has to be scored
+	 */
+	int lookup(Instance instance) {
+		Enumeration<Attribute> enumAtts = instance.enumerateAttributes();
+		int attIndex = -1;
+		int word = -1;
+		while (enumAtts.hasMoreElements()) {
+			attIndex++;
+			Attribute attribute = enumAtts.nextElement();
+			if ((attIndex >= weights.length) || (attribute.weight() != weights[attIndex])) {
+				return -1;
+			}
+			if (attIndex == actualWordIndex) {
+				word = instance.isMissing(attribute) ? -1 : (int) instance.value(attribute);
+			}
+		}
+		if ((attIndex != (weights.length - 1)) || (word < 0) || (word >= senses.length) || (senses[word] < 0) || (instance.weight() <= 0)) {
+			return -1;
+		}
+		double margin = priorMargins[word] + (instance.weight() * attributeMargins[word]);
+		return margin > 0 ? senses[word] : -1;
+	}
+
+	/**
+	 * @return the number of actualWords with a dominant sense
+	 */
+	int size() {
+		return numEntries;
+	}
+}
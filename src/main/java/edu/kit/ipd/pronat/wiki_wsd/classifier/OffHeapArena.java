@@ -0,0 +1,117 @@
+package edu.kit.ipd.pronat.wiki_wsd.classifier;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Allocates the count tables of {@link OffHeapDiscreteEstimator}s from large
+ * direct buffers, so the tables of a model share a few big allocations outside
+ * of the Java heap. Released tables are kept per size and reused.
+ *
+ * Direct buffers cannot be freed explicitly, so the memory of the arena is
+ * only reclaimed by the garbage collector once the arena is closed and the
+ * estimators using it are no longer reachable. Closing the arena only drops
+ * its own references to the buffers; a closed arena does not allocate any
+ * more.
+ *
+ * @author Jan Keim
+ * @author Sebastian Weigelt
+ *
+ */
+public class OffHeapArena implements Closeable {
+	/** Default size of the direct buffers tables are allocated from */
+	public static final int DEFAULT_CHUNK_SIZE = 64 << 20;
+
+	private final int chunkSize;
+	private final List<ByteBuffer> chunks = new ArrayList<>();
+	private final Map<Integer, ArrayDeque<ByteBuffer>> released = new HashMap<>();
+	private ByteBuffer current;
+	private long allocatedBytes;
+	private boolean closed;
+
+	public OffHeapArena() {
+		this(DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * @param chunkSize
+	 *            size of the direct buffers tables are allocated from
+	 */
+	public OffHeapArena(int chunkSize) {
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Allocates a zeroed buffer.
+	 *
+	 * @param size
+	 *            the size in bytes
+	 * @return the buffer, in little endian order
+	 * @throws IllegalStateException
+	 *             if the arena is closed
+	 */
+	synchronized ByteBuffer allocate(int size) {
+		if (closed) {
+			throw new IllegalStateException("Arena is closed");
+		}
+		ArrayDeque<ByteBuffer> reusable = released.get(size);
+		if ((reusable != null) && !reusable.isEmpty()) {
+			ByteBuffer buffer = reusable.pop();
+			for (int i = 0; i < (size - 7); i += 8) {
+				buffer.putLong(i, 0L);
+			}
+			return buffer;
+		}
+		allocatedBytes += size;
+		if (size > chunkSize) {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN);
+			chunks.add(buffer);
+			return buffer;
+		}
+		if ((current == null) || (current.remaining() < size)) {
+			current = ByteBuffer.allocateDirect(chunkSize);
+			chunks.add(current);
+		}
+		ByteBuffer slice = current.duplicate();
+		slice.limit(current.position() + size);
+		current.position(current.position() + size);
+		return slice.slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Returns a buffer that is no longer used for reuse.
+	 *
+	 * @param buffer
+	 *            a buffer allocated by this arena
+	 */
+	synchronized void release(ByteBuffer buffer) {
+		if (!closed) {
+			released.computeIfAbsent(buffer.capacity(), size -> new ArrayDeque<>()).push(buffer);
+		}
+	}
+
+	/**
+	 * @return the number of bytes allocated from the operating system
+	 */
+	public synchronized long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+
+	/**
+	 * Stops allocating and drops the references of the arena to its buffers. The
+	 * memory is not freed immediately, see the class comment.
+	 */
+	@Override
+	public synchronized void close() {
+		closed = true;
+		chunks.clear();
+		released.clear();
+		current = null;
+	}
+}
@@ -0,0 +1,264 @@
+package edu.kit.ipd.pronat.wiki_wsd.classifier;
+
+import java.io.IOException;
+import java.io.ObjectStreamException;
+import java.io.Serial;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * {@link SparseDiscreteEstimator} that stores the counts in an open addressing
+ * hash table outside of the Java heap, allocated from an {@link OffHeapArena}.
+ * Each entry takes 16 bytes (symbol + 1, 0 for empty slots, padding and the
+ * double count) and the table is at most three quarters full. The garbage collector
+ * only sees a few objects per estimator, independent of the number of counts.
+ *
+ * Serialization stores a {@link SparseDiscreteEstimator} with the same counts.
+ * {@link #writeTo(WritableByteChannel)} writes the table as it is, which is
+ * much faster for large models.
+ *
+ * @author Jan Keim
+ * @author Sebastian Weigelt
+ *
+ */
+public class OffHeapDiscreteEstimator extends SparseDiscreteEstimator {
+	@Serial
+	private static final long serialVersionUID = 1745302457305498062L;
+
+	private static final int ENTRY_SIZE = 16;
+	/** offset of the count in an entry, aligned for the double */
+	private static final int COUNT_OFFSET = 8;
+	private static final int MIN_CAPACITY = 8;
+	private static final int HEADER_SIZE = 28;
+
+	private final transient OffHeapArena arena;
+	/** the table, replaced as a whole when it grows */
+	private transient volatile ByteBuffer table;
+	private int size;
+	/** Hold the sum of counts, changed while holding the lock */
+	private volatile double sumOfCounts;
+
+	/**
+	 * Creates an off-heap copy of the given estimator.
+	 *
+	 * @param source
+	 *            the estimator to copy
+	 * @param arena
+	 *            the arena the table is allocated from
+	 */
+	public OffHeapDiscreteEstimator(SparseDiscreteEstimator source, OffHeapArena arena) {
+		super(true);
+		this.arena = arena;
+		table = arena.allocate(OffHeapDiscreteEstimator.capacityFor(source.numStoredCounts()) * ENTRY_SIZE);
+		copyFrom(source);
+	}
+
+	private OffHeapDiscreteEstimator(OffHeapArena arena, int capacity) {
+		super(true);
+		this.arena = arena;
+		table = arena.allocate(capacity * ENTRY_SIZE);
+	}
+
+	private static int capacityFor(int numCounts) {
+		int capacity = MIN_CAPACITY;
+		while ((capacity * 3L) / 4 < numCounts) {
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+
+	private static int slotOf(int symbol, int mask) {
+		return ((symbol * 0x9E3779B9) >>> 7) & mask;
+	}
+
+	/**
+	 * Returns the byte offset of the symbol's entry or of the empty slot it
+	 * would be stored in.
+	 */
+	private static int find(ByteBuffer current, int symbol) {
+		int mask = (current.capacity() / ENTRY_SIZE) - 1;
+		int slot = OffHeapDiscreteEstimator.slotOf(symbol, mask);
+		while (true) {
+			int offset = slot * ENTRY_SIZE;
+			int key = current.getInt(offset);
+			if ((key == 0) || (key == (symbol + 1))) {
+				return offset;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	@Override
+	public synchronized void addValue(double data, double weight) {
+		int symbol = (int) data;
+		int offset = OffHeapDiscreteEstimator.find(table, symbol);
+		if (table.getInt(offset) == 0) {
+			insert(symbol, getPrior() + weight);
+		} else {
+			table.putDouble(offset + COUNT_OFFSET, table.getDouble(offset + COUNT_OFFSET) + weight);
+		}
+		sumOfCounts += weight;
+	}
+
+	@Override
+	public double getSumOfCounts() {
+		return sumOfCounts;
+	}
+
+	@Override
+	protected void setSumOfCounts(double sumOfCounts) {
+		this.sumOfCounts = sumOfCounts;
+	}
+
+	@Override
+	protected synchronized void addToSumOfCounts(double weight) {
+		sumOfCounts += weight;
+	}
+
+	@Override
+	protected double countOf(int symbol) {
+		ByteBuffer current = table;
+		int offset = OffHeapDiscreteEstimator.find(current, symbol);
+		return current.getInt(offset) == 0 ? getPrior() : current.getDouble(offset + COUNT_OFFSET);
+	}
+
+	@Override
+	protected synchronized void putCount(int symbol, double count) {
+		int offset = OffHeapDiscreteEstimator.find(table, symbol);
+		if (table.getInt(offset) == 0) {
+			insert(symbol, count);
+		} else {
+			table.putDouble(offset + COUNT_OFFSET, count);
+		}
+	}
+
+	private void insert(int symbol, double count) {
+		if ((size + 1) > ((table.capacity() / ENTRY_SIZE) * 3L) / 4) {
+			grow();
+		}
+		int offset = OffHeapDiscreteEstimator.find(table, symbol);
+		table.putDouble(offset + COUNT_OFFSET, count);
+		table.putInt(offset, symbol + 1);
+		size++;
+	}
+
+	private void grow() {
+		ByteBuffer old = table;
+		ByteBuffer grown = arena.allocate(old.capacity() * 2);
+		for (int offset = 0; offset < old.capacity(); offset += ENTRY_SIZE) {
+			int key = old.getInt(offset);
+			if (key != 0) {
+				int newOffset = OffHeapDiscreteEstimator.find(grown, key - 1);
+				grown.putInt(newOffset, key);
+				grown.putDouble(newOffset + COUNT_OFFSET, old.getDouble(offset + COUNT_OFFSET));
+			}
+		}
+		table = grown;
+		arena.release(old);
+	}
+
+	@Override
+	protected void forEachCount(CountConsumer consumer) {
+		ByteBuffer current = table;
+		for (int offset = 0; offset < current.capacity(); offset += ENTRY_SIZE) {
+			int key = current.getInt(offset);
+			if (key != 0) {
+				consumer.accept(key - 1, current.getDouble(offset + COUNT_OFFSET));
+			}
+		}
+	}
+
+	@Override
+	protected int numStoredCounts() {
+		return size;
+	}
+
+	/**
+	 * Writes the estimator to the channel: number of symbols, number of stored
+	 * counts, table capacity (int each), prior and sum of counts (double each),
+	 * followed by the raw table.
+	 *
+	 * @param channel
+	 *            the channel
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	public synchronized void writeTo(WritableByteChannel channel) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(getNumSymbols()).putInt(size).putInt(table.capacity() / ENTRY_SIZE).putDouble(getPrior()).putDouble(getSumOfCounts());
+		header.flip();
+		OffHeapDiscreteEstimator.writeFully(channel, header);
+		OffHeapDiscreteEstimator.writeFully(channel, table.duplicate().clear());
+	}
+
+	/**
+	 * Reads an estimator written by {@link #writeTo(WritableByteChannel)}.
+	 *
+	 * @param channel
+	 *            the channel
+	 * @param arena
+	 *            the arena the table is allocated from
+	 * @return the estimator
+	 * @throws IOException
+	 *             if reading fails or the data is not a valid estimator
+	 */
+	public static OffHeapDiscreteEstimator readFrom(ReadableByteChannel channel, OffHeapArena arena) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		OffHeapDiscreteEstimator.readFully(channel, header);
+		header.flip();
+		int numSymbols = header.getInt();
+		int size = header.getInt();
+		int capacity = header.getInt();
+		// the probe mask needs a power of two and the probing an empty slot
+		if ((capacity < MIN_CAPACITY) || (Integer.bitCount(capacity) != 1) || (capacity > (Integer.MAX_VALUE / ENTRY_SIZE))) {
+			throw new IOException("Invalid table capacity " + capacity);
+		}
+		if ((numSymbols < 0) || (size < 0) || (size > ((capacity * 3L) / 4))) {
+			throw new IOException("Invalid estimator header: " + numSymbols + " symbols, " + size + " counts, capacity " + capacity);
+		}
+		OffHeapDiscreteEstimator estimator = new OffHeapDiscreteEstimator(arena, capacity);
+		estimator.setNumSymbols(numSymbols);
+		estimator.setfPrior(header.getDouble());
+		estimator.setSumOfCounts(header.getDouble());
+		estimator.size = size;
+		OffHeapDiscreteEstimator.readFully(channel, estimator.table.duplicate().clear());
+		if (estimator.countEntries() != size) {
+			arena.release(estimator.table);
+			throw new IOException("Estimator table does not contain " + size + " counts");
+		}
+		return estimator;
+	}
+
+	private int countEntries() {
+		int entries = 0;
+		for (int offset = 0; offset < table.capacity(); offset += ENTRY_SIZE) {
+			if (table.getInt(offset) != 0) {
+				entries++;
+			}
+		}
+		return entries;
+	}
+
+	private static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	private static void readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				throw new IOException("Unexpected end of estimator data");
+			}
+		}
+	}
+
+	@Serial
+	private Object writeReplace() throws ObjectStreamException {
+		SparseDiscreteEstimator copy = new SparseDiscreteEstimator();
+		copy.copyFrom(this);
+		return copy;
+	}
+}
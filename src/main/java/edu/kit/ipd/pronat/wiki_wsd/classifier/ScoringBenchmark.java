@@ -0,0 +1,101 @@
+package edu.kit.ipd.pronat.wiki_wsd.classifier;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import weka.core.Instances;
+
+/**
+ * Benchmark for {@link EfficientNaiveBayes#logDistributionForInstance} with the
+ * scalar and the Vector API {@link ScoringKernel}, and for the top-k selection
+ * compared to sorting all scores, for growing numbers of classes. The models
+ * are trained on the synthetic corpus of the {@link TrainingBenchmark} and
+ * score instances of a second corpus in the calling thread.
+ *
+ * The Vector API kernel is only measured if it is compiled in (Maven profile
+ * <code>vector-api</code>) and the JVM is started with
+ * <code>--add-modules jdk.incubator.vector</code>.
+ *
+ * Usage: ScoringBenchmark [numClasses...]
+ *
+ * @author Jan Keim
+ * @author Sebastian Weigelt
+ *
+ */
+public final class ScoringBenchmark {
+	private static final int INSTANCES_PER_CLASS = 3;
+	private static final int VOCABULARY_SIZE = 50000;
+	private static final int NUM_TEST_INSTANCES = 100;
+	private static final int ITERATIONS = 5;
+	private static final int WARMUP_ITERATIONS = 3;
+
+	private ScoringBenchmark() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		int[] numClasses = args.length > 0 ? Arrays.stream(args).mapToInt(Integer::parseInt).toArray() : new int[] { 1000, 10000, 100000 };
+		boolean vectorApi = ScoringKernel.setVectorized(true);
+		if (!vectorApi) {
+			System.out.println("Vector API not available, build with -Pvector-api and start the JVM with --add-modules jdk.incubator.vector to compare it");
+		}
+		for (int classes : numClasses) {
+			ScoringBenchmark.run(classes, vectorApi);
+		}
+	}
+
+	private static void run(int numClasses, boolean vectorApi) throws Exception {
+		EfficientNaiveBayes classifier = new EfficientNaiveBayes();
+		classifier.setParallelScoringThreshold(0);
+		classifier.buildClassifier(TrainingBenchmark.corpus(numClasses * INSTANCES_PER_CLASS, numClasses, VOCABULARY_SIZE, new Random(42)));
+		Instances test = TrainingBenchmark.corpus(NUM_TEST_INSTANCES, numClasses, VOCABULARY_SIZE, new Random(43));
+
+		double sink = 0;
+		for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+			ScoringKernel.setVectorized(false);
+			sink += ScoringBenchmark.score(classifier, test);
+			ScoringKernel.setVectorized(vectorApi);
+			sink += ScoringBenchmark.score(classifier, test);
+		}
+
+		ScoringKernel.setVectorized(false);
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			sink += ScoringBenchmark.score(classifier, test);
+		}
+		long scalar = (System.nanoTime() - start) / (ITERATIONS * NUM_TEST_INSTANCES);
+
+		ScoringKernel.setVectorized(vectorApi);
+		start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			sink += ScoringBenchmark.score(classifier, test);
+		}
+		long vector = (System.nanoTime() - start) / (ITERATIONS * NUM_TEST_INSTANCES);
+
+		double[] scores = classifier.logDistributionForInstance(test.instance(0));
+		start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS * NUM_TEST_INSTANCES; i++) {
+			double[] sorted = scores.clone();
+			Arrays.sort(sorted);
+			sink += sorted[sorted.length - 1];
+		}
+		long sortTop3 = (System.nanoTime() - start) / (ITERATIONS * NUM_TEST_INSTANCES);
+
+		start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS * NUM_TEST_INSTANCES; i++) {
+			sink += ScoringKernel.topK(scores, 3, Integer.MIN_VALUE)[0];
+		}
+		long kernelTop3 = (System.nanoTime() - start) / (ITERATIONS * NUM_TEST_INSTANCES);
+
+		System.out.println(String.format("classes=%d: scoring scalar %d us, %s %d us (%.1fx); top3 sort %d us, kernel %d us (%.1fx) [%s]", numClasses,
+				scalar / 1000, vectorApi ? "vector" : "scalar", vector / 1000, scalar / (double) vector, sortTop3 / 1000, kernelTop3 / 1000,
+				sortTop3 / (double) kernelTop3, sink));
+	}
+
+	private static double score(EfficientNaiveBayes classifier, Instances test) {
+		double sink = 0;
+		for (int i = 0; i < test.numInstances(); i++) {
+			sink += classifier.logDistributionForInstance(test.instance(i))[0];
+		}
+		return sink;
+	}
+}
@@ -0,0 +1,254 @@
+package edu.kit.ipd.pronat.wiki_wsd.classifier;
+
+/**
+ * Kernel operations for scoring instances against all classes at once. The
+ * scores are laid out class-major, i.e. one double per class, so the loops run
+ * over plain primitive arrays and can be vectorized by the JIT.
+ *
+ * If the VectorScoringKernel is compiled in (Maven profile
+ * <code>vector-api</code>), the jdk.incubator.vector module is available (the
+ * JVM is started with <code>--add-modules jdk.incubator.vector</code>) and the
+ * CPU has vector registers for more than one double, the accumulation uses
+ * that kernel, which also vectorizes the logarithms. It is loaded by name, so
+ * the default build compiles without the incubator module. Otherwise the
+ * scalar loops are used. The argmax and top-k selection stay scalar, the
+ * JIT already compiles them to tight loops.
+ *
+ * @author Jan Keim
+ * @author Sebastian Weigelt
+ *
+ */
+final class ScoringKernel {
+	private static final String VECTOR_MODULE = "jdk.incubator.vector";
+	private static final String VECTOR_KERNEL_CLASS = ScoringKernel.class.getPackageName() + ".VectorScoringKernel";
+
+	/** the Vector API kernel or null if it is not available */
+	private static final Accumulator VECTOR_KERNEL = ScoringKernel.loadVectorKernel();
+
+	/** whether the Vector API kernel is used */
+	private static volatile boolean vectorized = VECTOR_KERNEL != null;
+
+	/**
+	 * The accumulating loops of the kernel, implemented by the Vector API kernel.
+	 */
+	interface Accumulator {
+		/**
+		 * @return whether the loops are faster than the scalar ones on this CPU
+		 */
+		boolean isSupported();
+
+		/**
+		 * See {@link ScoringKernel#accumulate(double[], int, double[], double)}.
+		 */
+		void accumulate(double[] accumulator, int from, double[] row, double factor);
+
+		/**
+		 * See {@link ScoringKernel#accumulateLog(double[], int, double[], double)}.
+		 */
+		void accumulateLog(double[] accumulator, int from, double[] probabilities, double factor);
+	}
+
+	private ScoringKernel() {
+	}
+
+	private static Accumulator loadVectorKernel() {
+		if (ModuleLayer.boot().findModule(VECTOR_MODULE).isEmpty()) {
+			return null;
+		}
+		try {
+			Class<?> kernelClass = Class.forName(VECTOR_KERNEL_CLASS);
+			Accumulator kernel = (Accumulator) kernelClass.getDeclaredConstructor().newInstance();
+			return kernel.isSupported() ? kernel : null;
+		} catch (ReflectiveOperationException | LinkageError e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return whether the Vector API kernel is used
+	 */
+	static boolean isVectorized() {
+		return vectorized;
+	}
+
+	/**
+	 * Switches between the Vector API kernel and the scalar loops, e.g. to
+	 * compare them. The Vector API kernel is only used if it is available.
+	 *
+	 * @param useVectorApi
+	 *            whether to use the Vector API kernel
+	 * @return whether the Vector API kernel is used
+	 */
+	static boolean setVectorized(boolean useVectorApi) {
+		vectorized = useVectorApi && (VECTOR_KERNEL != null);
+		return vectorized;
+	}
+
+	/**
+	 * Adds factor * row[k] to accumulator[k] for all classes k.
+	 *
+	 * @param accumulator
+	 *            the per-class scores
+	 * @param row
+	 *            the per-class values to add
+	 * @param factor
+	 *            the factor each value is multiplied with
+	 */
+	static void accumulate(double[] accumulator, double[] row, double factor) {
+		ScoringKernel.accumulate(accumulator, 0, row, factor);
+	}
+
+	/**
+	 * Adds factor * row[k] to accumulator[from + k] for all entries k of the row.
+	 *
+	 * @param accumulator
+	 *            the per-class scores
+	 * @param from
+	 *            the class of the first entry of the row
+	 * @param row
+	 *            the per-class values to add
+	 * @param factor
+	 *            the factor each value is multiplied with
+	 */
+	static void accumulate(double[] accumulator, int from, double[] row, double factor) {
+		if (vectorized) {
+			VECTOR_KERNEL.accumulate(accumulator, from, row, factor);
+			return;
+		}
+		for (int k = 0; k < row.length; k++) {
+			accumulator[from + k] += factor * row[k];
+		}
+	}
+
+	/**
+	 * Adds factor * log(probabilities[k]) to accumulator[from + k] for all entries
+	 * k of the probabilities.
+	 *
+	 * @param accumulator
+	 *            the per-class scores
+	 * @param from
+	 *            the class of the first probability
+	 * @param probabilities
+	 *            the per-class probabilities
+	 * @param factor
+	 *            the factor each log-probability is multiplied with
+	 */
+	static void accumulateLog(double[] accumulator, int from, double[] probabilities, double factor) {
+		if (vectorized) {
+			VECTOR_KERNEL.accumulateLog(accumulator, from, probabilities, factor);
+			return;
+		}
+		for (int k = 0; k < probabilities.length; k++) {
+			accumulator[from + k] += factor * Math.log(probabilities[k]);
+		}
+	}
+
+	/**
+	 * Returns the index of the first maximum that is greater than the floor.
+	 *
+	 * @param values
+	 *            the per-class scores
+	 * @param floor
+	 *            scores have to be greater than this value
+	 * @return the index of the maximum or -1 if no score is greater than the
+	 *         floor
+	 */
+	static int argmax(double[] values, double floor) {
+		double max = floor;
+		int maxIndex = -1;
+		for (int k = 0; k < values.length; k++) {
+			if (values[k] > max) {
+				maxIndex = k;
+				max = values[k];
+			}
+		}
+		return maxIndex;
+	}
+
+	/**
+	 * Returns the indices of the k highest scores that are greater than the floor,
+	 * highest first. For equal scores the lower index comes first.
+	 *
+	 * @param values
+	 *            the per-class scores
+	 * @param k
+	 *            the maximum number of indices
+	 * @param floor
+	 *            scores have to be greater than this value
+	 * @return the indices of the top k scores, may be shorter than k
+	 */
+	static int[] topK(double[] values, int k, double floor) {
+		return ScoringKernel.topK(values, 0, values.length, k, floor);
+	}
+
+	/**
+	 * Like {@link #topK(double[], int, double)}, but only considers the scores in
+	 * the given range.
+	 *
+	 * @param values
+	 *            the per-class scores
+	 * @param from
+	 *            the first index of the range
+	 * @param to
+	 *            the end of the range (exclusive)
+	 * @param k
+	 *            the maximum number of indices
+	 * @param floor
+	 *            scores have to be greater than this value
+	 * @return the indices of the top k scores in the range, may be shorter than k
+	 */
+	static int[] topK(double[] values, int from, int to, int k, double floor) {
+		int[] indices = new int[Math.max(0, Math.min(k, to - from))];
+		if (indices.length == 0) {
+			return indices;
+		}
+		int size = 0;
+		for (int i = from; i < to; i++) {
+			double value = values[i];
+			if ((value <= floor) || ((size == indices.length) && (value <= values[indices[size - 1]]))) {
+				continue;
+			}
+			int pos = size < indices.length ? size++ : size - 1;
+			while ((pos > 0) && (value > values[indices[pos - 1]])) {
+				indices[pos] = indices[pos - 1];
+				pos--;
+			}
+			indices[pos] = i;
+		}
+		if (size < indices.length) {
+			int[] shortened = new int[size];
+			System.arraycopy(indices, 0, shortened, 0, size);
+			return shortened;
+		}
+		return indices;
+	}
+
+	/**
+	 * Merges the top scores of two ranges into the top k of both, highest first.
+	 * All indices of the left range have to be lower than those of the right one,
+	 * so equal scores keep the lower index first.
+	 *
+	 * @param values
+	 *            the per-class scores
+	 * @param left
+	 *            the top indices of the lower range, highest first
+	 * @param right
+	 *            the top indices of the higher range, highest first
+	 * @param k
+	 *            the maximum number of indices
+	 * @return the merged top indices
+	 */
+	static int[] mergeTopK(double[] values, int[] left, int[] right, int k) {
+		int[] merged = new int[Math.min(k, left.length + right.length)];
+		int l = 0;
+		int r = 0;
+		for (int i = 0; i < merged.length; i++) {
+			if ((r == right.length) || ((l < left.length) && (values[left[l]] >= values[right[r]]))) {
+				merged[i] = left[l++];
+			} else {
+				merged[i] = right[r++];
+			}
+		}
+		return merged;
+	}
+}
@@ -6,7 +6,12 @@ import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
 import java.util.Optional;
+import java.util.Properties;
 import java.util.zip.DeflaterOutputStream;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
@@ -43,7 +48,9 @@ public class SerializationHelper {
 
 	private static FSTConfiguration createConf() {
 		final FSTConfiguration conf = FSTConfiguration.createDefaultConfiguration();
-		conf.registerClass(Filter.class, StringToNominal.class, Instances.class, EfficientNaiveBayes.class);
+		conf.registerClass(Filter.class, StringToNominal.class, Instances.class, EfficientNaiveBayes.class, SparseDiscreteEstimator.class,
+				DenseDiscreteEstimator.class, SortedDiscreteEstimator.class, SharedVocabularyFilter.class, ModelDelta.class,
+				ModelDelta.EstimatorDelta.class, LemmaShard.class, ShardedModel.ShardIndex.class);
 		conf.setShareReferences(false);
 		return conf;
 	}
@@ -68,6 +75,10 @@ public class SerializationHelper {
 		}
 	}
 
+	public static void serializeModelDelta(ModelDelta delta, String outputFile) {
+		SerializationHelper.write(delta, outputFile);
+	}
+
 	public static void serializeFilter(Filter filter, String outputFile) {
 		SerializationHelper.write(filter, outputFile);
 	}
@@ -111,11 +122,44 @@ public class SerializationHelper {
 	public static Optional<EfficientNaiveBayes> deserializeEfficientNaiveBayesClassifier(InputStream input) {
 		Object object = SerializationHelper.read(input);
 		if (object instanceof EfficientNaiveBayes) {
-			return Optional.of((EfficientNaiveBayes) object);
+			EfficientNaiveBayes classifier = (EfficientNaiveBayes) object;
+			classifier.resetTransientOptions();
+			return Optional.of(classifier);
 		}
 		return Optional.empty();
 	}
 
+	/**
+	 * Deserializes a classifier and applies the given deltas in order.
+	 *
+	 * @param input
+	 *            the serialized base classifier
+	 * @param deltas
+	 *            the serialized deltas, see
+	 *            {@link #serializeModelDelta(ModelDelta, String)}
+	 * @return the updated classifier, empty if the classifier or a delta could
+	 *         not be read or a delta does not fit
+	 */
+	public static Optional<EfficientNaiveBayes> deserializeEfficientNaiveBayesClassifier(InputStream input, List<InputStream> deltas) {
+		Optional<EfficientNaiveBayes> classifier = SerializationHelper.deserializeEfficientNaiveBayesClassifier(input);
+		if (classifier.isEmpty()) {
+			return classifier;
+		}
+		for (InputStream deltaInput : deltas) {
+			Optional<ModelDelta> delta = SerializationHelper.deserializeModelDelta(deltaInput);
+			if (delta.isEmpty()) {
+				return Optional.empty();
+			}
+			try {
+				delta.get().applyTo(classifier.get());
+			} catch (IllegalArgumentException e) {
+				SerializationHelper.logger.warn(e.getMessage(), e);
+				return Optional.empty();
+			}
+		}
+		return classifier;
+	}
+
 	public static Optional<EfficientNaiveBayes> deserializeEfficientNaiveBayesClassifierNative(InputStream input) {
 		Object classifier = null;
 		try {
@@ -124,6 +168,7 @@ public class SerializationHelper {
 			SerializationHelper.logger.warn(e.getMessage(), e.getCause());
 		}
 		if (classifier instanceof EfficientNaiveBayes) {
+			((EfficientNaiveBayes) classifier).resetTransientOptions();
 			return Optional.of((EfficientNaiveBayes) classifier);
 		}
 		return Optional.empty();
@@ -137,11 +182,20 @@ public class SerializationHelper {
 			SerializationHelper.logger.warn(e.getMessage(), e.getCause());
 		}
 		if (classifier instanceof EfficientNaiveBayes) {
+			((EfficientNaiveBayes) classifier).resetTransientOptions();
 			return Optional.of((EfficientNaiveBayes) classifier);
 		}
 		return Optional.empty();
 	}
 
+	public static Optional<ModelDelta> deserializeModelDelta(InputStream input) {
+		Object object = SerializationHelper.read(input);
+		if (object instanceof ModelDelta) {
+			return Optional.of((ModelDelta) object);
+		}
+		return Optional.empty();
+	}
+
 	public static Optional<Filter> deserializeFilter(InputStream input) {
 		Object object = SerializationHelper.read(input);
 		if (object instanceof Filter) {
@@ -220,6 +274,51 @@ public class SerializationHelper {
 		}
 	}
 
+	/**
+	 * Writes the object like {@link #write(Object, String)}, but to a temporary
+	 * file that is synced and then atomically moved to the target, so the target
+	 * is either the old or the complete new file after a crash.
+	 */
+	static void writeAtomically(Object object, Path target) throws IOException {
+		Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+		try (FileOutputStream stream = new FileOutputStream(temp.toFile())) {
+			DeflaterOutputStream out = new DeflaterOutputStream(stream);
+			FSTObjectOutput fstOut = SerializationHelper.getFSTConfig().getObjectOutput(out);
+			fstOut.writeObject(object);
+			fstOut.flush();
+			out.finish();
+			stream.getFD().sync();
+		}
+		Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Stores the properties like {@link #writeAtomically(Object, Path)}: to a
+	 * synced temporary file that is atomically moved to the target.
+	 */
+	static void writeAtomically(Properties properties, String comment, Path target) throws IOException {
+		Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+		try (FileOutputStream stream = new FileOutputStream(temp.toFile())) {
+			properties.store(stream, comment);
+			stream.getFD().sync();
+		}
+		Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Serializes the object with FST, without compression.
+	 */
+	static byte[] toBytes(Object object) {
+		return SerializationHelper.getFSTConfig().asByteArray(object);
+	}
+
+	/**
+	 * Deserializes an object serialized by {@link #toBytes(Object)}.
+	 */
+	static Object fromBytes(byte[] bytes) {
+		return SerializationHelper.getFSTConfig().asObject(bytes);
+	}
+
 	private static void writeNative(String outputFileName, Object object) {
 		try (FileOutputStream outputStream = new FileOutputStream(outputFileName);
 				ObjectOutputStream objectOutputStream = new ObjectOutputStream(outputStream)) {
@@ -239,7 +338,7 @@ public class SerializationHelper {
 		}
 	}
 
-	private static Object read(InputStream input) {
+	static Object read(InputStream input) {
 		try (InputStream in = new InflaterInputStream(input);
 				FSTObjectInput fstIn = SerializationHelper.getFSTConfig().getObjectInput(in)) {
 			return fstIn.readObject();
@@ -0,0 +1,379 @@
+package edu.kit.ipd.pronat.wiki_wsd.classifier;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.Serial;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import weka.classifiers.AbstractClassifier;
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+import weka.estimators.Estimator;
+
+/**
+ * An {@link EfficientNaiveBayes} partitioned by the value of the actualWord
+ * attribute. Each actualWord has a {@link LemmaShard} with only the classes
+ * that have been seen with it in training. Instances with an actualWord
+ * without shard (or a missing actualWord) are classified with the fallback
+ * shard of the classes with the highest prior. Classes outside of the shard get
+ * a log-probability of negative infinity.
+ *
+ * The shards are exported with {@link #export(EfficientNaiveBayes, Path, int)}
+ * into a data file and an index. {@link #open(Path, long)} only loads the
+ * index; shards are read from the data file when they are first needed and
+ * kept in an LRU cache, whose size is bounded by the serialized size of the
+ * cached shards. A serialized sharded model only contains the index and
+ * reopens the data file in its directory when it is deserialized.
+ *
+ * The classifier can be used in the {@link ClassifierService} instead of the
+ * full model. It cannot be trained.
+ *
+ * @author Jan Keim
+ * @author Sebastian Weigelt
+ *
+ */
+public class ShardedModel extends AbstractClassifier implements Closeable {
+	@Serial
+	private static final long serialVersionUID = -4629419406416823263L;
+	private static final Logger logger = LoggerFactory.getLogger(ShardedModel.class);
+
+	/** Default number of classes in the fallback shard */
+	public static final int DEFAULT_FALLBACK_SIZE = 1000;
+
+	private static final String INDEX_FILE = "shards.index";
+	private static final String DATA_FILE = "shards.data";
+	private static final String ACTUAL_WORD = "actualWord";
+	private static final int EXPORT_BATCH_SIZE = 1024;
+
+	private final ShardIndex index;
+	/** the directory of the shards, the data file is reopened after deserialization */
+	private final String directory;
+	private final long cacheBudget;
+	private transient FileChannel data;
+	private transient Map<Integer, LemmaShard> cache;
+	private transient long cachedBytes;
+	private transient LongAdder cacheHits;
+	private transient LongAdder cacheMisses;
+
+	private ShardedModel(ShardIndex index, Path directory, long cacheBudget) throws IOException {
+		this.index = index;
+		this.directory = directory.toAbsolutePath().toString();
+		this.cacheBudget = cacheBudget;
+		openData();
+	}
+
+	/**
+	 * Opens the data file and creates the empty cache.
+	 */
+	private void openData() throws IOException {
+		data = FileChannel.open(Paths.get(directory).resolve(DATA_FILE), StandardOpenOption.READ);
+		cache = new LinkedHashMap<>(16, 0.75f, true);
+		cacheHits = new LongAdder();
+		cacheMisses = new LongAdder();
+	}
+
+	@Serial
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		openData();
+	}
+
+	/**
+	 * Partitions the trained model by actualWord and writes the shards to the
+	 * directory.
+	 *
+	 * @param model
+	 *            the trained model
+	 * @param directory
+	 *            the output directory, created if it does not exist
+	 * @param fallbackSize
+	 *            the number of classes in the fallback shard
+	 * @throws IOException
+	 *             if the shards could not be written
+	 */
+	public static void export(EfficientNaiveBayes model, Path directory, int fallbackSize) throws IOException {
+		Files.createDirectories(directory);
+		Instances header = model.getTrainingHeader();
+		Attribute actualWord = header.attribute(ACTUAL_WORD);
+		if (actualWord == null) {
+			throw new IllegalArgumentException("Model has no " + ACTUAL_WORD + " attribute");
+		}
+		int actualWordIndex = actualWord.index() < header.classIndex() ? actualWord.index() : actualWord.index() - 1;
+		int[][] classesByValue = ShardedModel.classesByValue(model.getDistributions()[actualWordIndex]);
+
+		long[] offsets = new long[classesByValue.length];
+		int[] lengths = new int[classesByValue.length];
+		Arrays.fill(offsets, -1);
+		long position = 0;
+		try (FileChannel out = FileChannel.open(directory.resolve(DATA_FILE), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE)) {
+			for (int from = 0; from < classesByValue.length; from += EXPORT_BATCH_SIZE) {
+				int batchStart = from;
+				byte[][] shards = IntStream.range(from, Math.min(from + EXPORT_BATCH_SIZE, classesByValue.length))
+						.parallel()
+						.mapToObj(value -> classesByValue[value].length == 0 ? null
+								: SerializationHelper.toBytes(LemmaShard.of(model, classesByValue[value])))
+						.toArray(byte[][]::new);
+				for (int i = 0; i < shards.length; i++) {
+					if (shards[i] == null) {
+						continue;
+					}
+					ByteBuffer buffer = ByteBuffer.wrap(shards[i]);
+					while (buffer.hasRemaining()) {
+						out.write(buffer);
+					}
+					offsets[batchStart + i] = position;
+					lengths[batchStart + i] = shards[i].length;
+					position += shards[i].length;
+				}
+			}
+			out.force(true);
+		}
+
+		LemmaShard fallback = LemmaShard.of(model, ShardedModel.topPriorClasses(model, fallbackSize));
+		ShardIndex index = new ShardIndex(new Instances(header, 0), model.getNumClasses(), actualWord.index(), offsets, lengths, fallback);
+		SerializationHelper.writeAtomically(index, directory.resolve(INDEX_FILE));
+		ShardedModel.logger.info("Exported {} bytes of shards to {}", position, directory);
+	}
+
+	/**
+	 * Returns for each actualWord value the classes that have been seen with it.
+	 * The values are taken from the estimators, as the header may be a compact
+	 * one without values and values may have been added after training.
+	 */
+	private static int[][] classesByValue(Estimator[] actualWordEstimators) {
+		int numSymbols = 0;
+		for (Estimator estimator : actualWordEstimators) {
+			numSymbols = Math.max(numSymbols, ((SparseDiscreteEstimator) estimator).getNumSymbols());
+		}
+		int numValues = numSymbols;
+		List<List<Integer>> classes = new ArrayList<>(numValues);
+		for (int value = 0; value < numValues; value++) {
+			classes.add(new ArrayList<>(0));
+		}
+		for (int classIndex = 0; classIndex < actualWordEstimators.length; classIndex++) {
+			SparseDiscreteEstimator estimator = (SparseDiscreteEstimator) actualWordEstimators[classIndex];
+			int seenClass = classIndex;
+			estimator.forEachCount((symbol, count) -> {
+				if ((count > estimator.getPrior()) && (symbol < numValues)) {
+					classes.get(symbol).add(seenClass);
+				}
+			});
+		}
+		int[][] result = new int[numValues][];
+		for (int value = 0; value < numValues; value++) {
+			result[value] = classes.get(value).stream().mapToInt(Integer::intValue).sorted().toArray();
+		}
+		return result;
+	}
+
+	private static int[] topPriorClasses(EfficientNaiveBayes model, int size) {
+		SparseDiscreteEstimator classDistribution = model.getClassDistribution();
+		double[] priors = new double[model.getNumClasses()];
+		for (int k = 0; k < priors.length; k++) {
+			priors[k] = classDistribution.getProbability(k);
+		}
+		return ScoringKernel.topK(priors, size, Double.NEGATIVE_INFINITY);
+	}
+
+	/**
+	 * Opens exported shards. Only the index and the fallback shard are loaded.
+	 *
+	 * @param directory
+	 *            the directory the shards were exported to
+	 * @param cacheBudget
+	 *            the maximum serialized size of the cached shards in bytes
+	 * @return the sharded model
+	 * @throws IOException
+	 *             if the index could not be read
+	 */
+	public static ShardedModel open(Path directory, long cacheBudget) throws IOException {
+		ShardIndex index;
+		try (InputStream input = Files.newInputStream(directory.resolve(INDEX_FILE))) {
+			Object object = SerializationHelper.read(input);
+			if (!(object instanceof ShardIndex)) {
+				throw new IOException("Could not read shard index in " + directory);
+			}
+			index = (ShardIndex) object;
+		}
+		return new ShardedModel(index, directory, cacheBudget);
+	}
+
+	/**
+	 * Returns the log-distribution of the instance like
+	 * {@link EfficientNaiveBayes#logDistributionForInstance(Instance)}, but only
+	 * the classes of the shard of its actualWord are scored.
+	 *
+	 * @param instance
+	 *            the filtered instance
+	 * @return the log-distribution over all classes
+	 */
+	protected double[] logDistributionForInstance(Instance instance) {
+		double[] logDistribution = new double[index.numClasses];
+		Arrays.fill(logDistribution, Double.NEGATIVE_INFINITY);
+		shardFor(instance).score(instance, logDistribution);
+		return logDistribution;
+	}
+
+	private LemmaShard shardFor(Instance instance) {
+		if (instance.isMissing(index.actualWordAttribute)) {
+			return index.fallback;
+		}
+		int value = (int) instance.value(index.actualWordAttribute);
+		if ((value >= index.offsets.length) || (index.offsets[value] < 0)) {
+			return index.fallback;
+		}
+		synchronized (cache) {
+			LemmaShard shard = cache.get(value);
+			if (shard != null) {
+				cacheHits.increment();
+				return shard;
+			}
+		}
+		cacheMisses.increment();
+		LemmaShard shard = load(value);
+		synchronized (cache) {
+			if (cache.putIfAbsent(value, shard) == null) {
+				cachedBytes += index.lengths[value];
+				evict();
+			}
+		}
+		return shard;
+	}
+
+	private LemmaShard load(int value) {
+		ByteBuffer buffer = ByteBuffer.allocate(index.lengths[value]);
+		try {
+			while (buffer.hasRemaining()) {
+				if (data.read(buffer, index.offsets[value] + buffer.position()) < 0) {
+					throw new IOException("Unexpected end of shard data");
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return (LemmaShard) SerializationHelper.fromBytes(buffer.array());
+	}
+
+	private void evict() {
+		Iterator<Map.Entry<Integer, LemmaShard>> iterator = cache.entrySet().iterator();
+		while ((cachedBytes > cacheBudget) && (cache.size() > 1) && iterator.hasNext()) {
+			int value = iterator.next().getKey();
+			iterator.remove();
+			cachedBytes -= index.lengths[value];
+		}
+	}
+
+	@Override
+	public void buildClassifier(Instances data) throws Exception {
+		throw new Exception("Sharded models are exported from a trained EfficientNaiveBayes");
+	}
+
+	@Override
+	public double classifyInstance(Instance instance) throws Exception {
+		int maxIndex = ScoringKernel.argmax(logDistributionForInstance(instance), Double.NEGATIVE_INFINITY);
+		return maxIndex >= 0 ? maxIndex : Utils.missingValue();
+	}
+
+	@Override
+	public double[] distributionForInstance(Instance instance) throws Exception {
+		double[] logDistribution = logDistributionForInstance(instance);
+		double max = Arrays.stream(logDistribution).max().orElse(Double.NEGATIVE_INFINITY);
+		double[] probs = new double[logDistribution.length];
+		if (max == Double.NEGATIVE_INFINITY) {
+			return probs;
+		}
+		double sum = 0;
+		for (double logValue : logDistribution) {
+			sum += Math.exp(logValue - max);
+		}
+		double logDenominator = max + Math.log(sum);
+		for (int k = 0; k < probs.length; k++) {
+			probs[k] = Math.exp(logDistribution[k] - logDenominator);
+		}
+		return probs;
+	}
+
+	/**
+	 * @return the header of the training data
+	 */
+	public Instances getHeader() {
+		return index.header;
+	}
+
+	/**
+	 * @return the serialized size of the cached shards in bytes
+	 */
+	public long getCachedBytes() {
+		synchronized (cache) {
+			return cachedBytes;
+		}
+	}
+
+	/**
+	 * @return the number of shards found in the cache
+	 */
+	public long getCacheHits() {
+		return cacheHits.sum();
+	}
+
+	/**
+	 * @return the number of shards read from the data file
+	 */
+	public long getCacheMisses() {
+		return cacheMisses.sum();
+	}
+
+	@Override
+	public void close() throws IOException {
+		data.close();
+	}
+
+	/**
+	 * Locations of the shards in the data file and the fallback shard.
+	 */
+	static final class ShardIndex implements Serializable {
+		@Serial
+		private static final long serialVersionUID = 8123962718553519117L;
+
+		private final Instances header;
+		private final int numClasses;
+		/** index of the actualWord attribute in the instances */
+		private final int actualWordAttribute;
+		/** per actualWord value: offset of its shard, -1 if it has none */
+		private final long[] offsets;
+		private final int[] lengths;
+		private final LemmaShard fallback;
+
+		private ShardIndex(Instances header, int numClasses, int actualWordAttribute, long[] offsets, int[] lengths, LemmaShard fallback) {
+			this.header = header;
+			this.numClasses = numClasses;
+			this.actualWordAttribute = actualWordAttribute;
+			this.offsets = offsets;
+			this.lengths = lengths;
+			this.fallback = fallback;
+		}
+	}
+}
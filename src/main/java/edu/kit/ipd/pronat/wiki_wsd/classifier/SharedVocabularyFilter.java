@@ -0,0 +1,424 @@
+package edu.kit.ipd.pronat.wiki_wsd.classifier;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.RevisionUtils;
+import weka.core.SparseInstance;
+import weka.core.Utils;
+import weka.filters.Filter;
+
+/**
+ * Filter that encodes the string attributes of WSD instances like a trained
+ * {@link weka.filters.unsupervised.attribute.StringToNominal}, but keeps one
+ * global lemma dictionary for all word attributes and one global POS
+ * dictionary for all POS attributes instead of one dictionary per attribute.
+ * Each attribute maps the global ids to its own nominal indices with an int
+ * array, so the trained models keep working unchanged.
+ *
+ * The output format is a compact header in which the shared attributes are
+ * nominal attributes without values. Use it for the classifier as well (see
+ * {@link EfficientNaiveBayes#setHeader(Instances)}) so the serialized model
+ * does not contain the dictionaries either.
+ *
+ * This filter cannot be trained itself, create it from a trained filter with
+ * {@link #fromFilter(Filter)}. It does not use the filter queue for encoding:
+ * {@link #encode(Instance)} is thread-safe. For online training, the
+ * dictionaries can grow with values that were not known at training time, see
+ * {@link #encodeAndGrow(Instance)}.
+ *
+ * {@link SparseInstance}s are encoded into sparse instances of the output
+ * format, the values that are not stored keep their default.
+ *
+ * @author Jan Keim
+ * @author Sebastian Weigelt
+ *
+ */
+public class SharedVocabularyFilter extends Filter {
+	@Serial
+	private static final long serialVersionUID = -3179826370316359716L;
+
+	/** Names of the attributes that share the lemma dictionary */
+	public static final Set<String> LEMMA_ATTRIBUTES = Set.of("actualWord", "word-3", "word-2", "word-1", "word+1", "word+2", "word+3", "leftNN",
+			"leftVB", "rightNN", "rightVB");
+	/** Suffix of the names of the attributes that share the POS dictionary */
+	public static final String POS_ATTRIBUTE_SUFFIX = "POS";
+
+	private final Dictionary lemmas = new Dictionary();
+	private final Dictionary posTags = new Dictionary();
+	/** Per attribute: the shared dictionary or null if the attribute is not shared */
+	private Dictionary[] attributeDictionaries;
+	/**
+	 * Per attribute: maps global ids to nominal indices, -1 if the attribute
+	 * does not have the value. Null if the ids are the same.
+	 */
+	private int[][] globalToLocal;
+	/** Per attribute: the number of nominal values */
+	private int[] numValues;
+	/** Per attribute: the values added by online training, null if the attribute is not shared */
+	private AddedValues[] addedValues;
+	private Instances outputHeader;
+	private boolean growDictionaries;
+
+	private SharedVocabularyFilter() {
+		super();
+	}
+
+	/**
+	 * Creates the filter from a trained filter that converts the string
+	 * attributes of the WSD instances to nominal attributes, usually a
+	 * {@link weka.filters.unsupervised.attribute.StringToNominal}.
+	 *
+	 * @param trainedFilter
+	 *            the trained filter
+	 * @return the filter with shared dictionaries
+	 * @throws Exception
+	 *             if the input format cannot be set
+	 */
+	public static SharedVocabularyFilter fromFilter(Filter trainedFilter) throws Exception {
+		SharedVocabularyFilter filter = SharedVocabularyFilter.fromHeader(trainedFilter.getOutputFormat());
+		filter.setInputFormat(trainedFilter.getCopyOfInputFormat());
+		return filter;
+	}
+
+	/**
+	 * Creates the filter from the nominal header of the WSD instances. The input
+	 * format still has to be set.
+	 *
+	 * @param nominalHeader
+	 *            the header with nominal attributes
+	 * @return the filter with shared dictionaries
+	 */
+	public static SharedVocabularyFilter fromHeader(Instances nominalHeader) {
+		SharedVocabularyFilter filter = new SharedVocabularyFilter();
+		int numAttributes = nominalHeader.numAttributes();
+		filter.attributeDictionaries = new Dictionary[numAttributes];
+		filter.globalToLocal = new int[numAttributes][];
+		filter.numValues = new int[numAttributes];
+		filter.addedValues = new AddedValues[numAttributes];
+
+		ArrayList<Attribute> attributes = new ArrayList<>(numAttributes);
+		for (int i = 0; i < numAttributes; i++) {
+			Attribute attribute = nominalHeader.attribute(i);
+			Dictionary dictionary = (i == nominalHeader.classIndex()) || !attribute.isNominal() ? null : filter.dictionaryFor(attribute.name());
+			if (dictionary == null) {
+				attributes.add((Attribute) attribute.copy());
+				continue;
+			}
+			filter.attributeDictionaries[i] = dictionary;
+			filter.numValues[i] = attribute.numValues();
+			filter.globalToLocal[i] = SharedVocabularyFilter.addValues(dictionary, attribute);
+			filter.addedValues[i] = new AddedValues(attribute.numValues());
+
+			Attribute compactAttribute = new Attribute(attribute.name(), new ArrayList<String>());
+			compactAttribute.setWeight(attribute.weight());
+			attributes.add(compactAttribute);
+		}
+		filter.outputHeader = new Instances(nominalHeader.relationName(), attributes, 0);
+		filter.outputHeader.setClassIndex(nominalHeader.classIndex());
+		return filter;
+	}
+
+	private Dictionary dictionaryFor(String attributeName) {
+		if (LEMMA_ATTRIBUTES.contains(attributeName)) {
+			return lemmas;
+		} else if (attributeName.endsWith(POS_ATTRIBUTE_SUFFIX)) {
+			return posTags;
+		}
+		return null;
+	}
+
+	/**
+	 * Adds the values of the attribute to the dictionary and returns the mapping
+	 * from global ids to nominal indices, or null if they are the same.
+	 */
+	private static int[] addValues(Dictionary dictionary, Attribute attribute) {
+		int[] localToGlobal = new int[attribute.numValues()];
+		boolean identity = true;
+		for (int local = 0; local < localToGlobal.length; local++) {
+			localToGlobal[local] = dictionary.add(attribute.value(local));
+			identity &= localToGlobal[local] == local;
+		}
+		if (identity) {
+			return null;
+		}
+		int[] mapping = new int[dictionary.size()];
+		Arrays.fill(mapping, -1);
+		for (int local = 0; local < localToGlobal.length; local++) {
+			mapping[localToGlobal[local]] = local;
+		}
+		return mapping;
+	}
+
+	@Override
+	public boolean setInputFormat(Instances instanceInfo) throws Exception {
+		super.setInputFormat(instanceInfo);
+		setOutputFormat(outputHeader);
+		return true;
+	}
+
+	@Override
+	public boolean input(Instance instance) {
+		if (getInputFormat() == null) {
+			throw new IllegalStateException("No input instance format defined");
+		}
+		if (m_NewBatch) {
+			resetQueue();
+			m_NewBatch = false;
+		}
+		push(growDictionaries ? encodeAndGrow(instance) : encode(instance), false);
+		return true;
+	}
+
+	/**
+	 * Sets whether {@link #input(Instance)} adds unknown values of the shared
+	 * attributes to the dictionaries, see {@link #encodeAndGrow(Instance)}.
+	 * Enable it for online training only, unknown values of instances to classify
+	 * should not be added.
+	 *
+	 * @param growDictionaries
+	 *            whether the dictionaries grow on input
+	 */
+	public void setGrowDictionaries(boolean growDictionaries) {
+		this.growDictionaries = growDictionaries;
+	}
+
+	/**
+	 * @return whether {@link #input(Instance)} adds unknown values to the
+	 *         dictionaries
+	 */
+	public boolean getGrowDictionaries() {
+		return growDictionaries;
+	}
+
+	/**
+	 * Like {@link #encode(Instance)}, but unknown values of the shared attributes
+	 * are added to their dictionary and get a new code instead of being set to
+	 * missing. The new codes of an attribute follow the nominal indices of its
+	 * trained values, {@link EfficientNaiveBayes#updateClassifier(Instance)}
+	 * grows its estimators accordingly. The dictionaries are append-only, so
+	 * instances encoded before keep their codes. Thread-safe.
+	 *
+	 * @param instance
+	 *            the training instance to encode
+	 * @return the encoded instance
+	 */
+	public Instance encodeAndGrow(Instance instance) {
+		return encode(instance, true, attIndex -> {
+		});
+	}
+
+	/**
+	 * Encodes a single value of the attribute and adds it to the dictionary of
+	 * the attribute if it is unknown.
+	 *
+	 * @param attIndex
+	 *            the index of the attribute
+	 * @param value
+	 *            the string value
+	 * @return the nominal index of the value or -1 if the value is unknown and
+	 *         the attribute does not use a shared dictionary
+	 */
+	public int encodeAndGrow(int attIndex, String value) {
+		int code = encode(attIndex, value);
+		Dictionary dictionary = attributeDictionaries[attIndex];
+		if ((code >= 0) || (dictionary == null)) {
+			return code;
+		}
+		return addedValues[attIndex].add(dictionary.add(value));
+	}
+
+	/**
+	 * Encodes the instance with string attributes into an instance of the
+	 * output format. Values that are unknown are set to missing. Thread-safe.
+	 *
+	 * @param instance
+	 *            the instance to encode
+	 * @return the encoded instance
+	 */
+	public Instance encode(Instance instance) {
+		return encode(instance, attIndex -> {
+		});
+	}
+
+	/**
+	 * Like {@link #encode(Instance)}, but reports the index of each attribute
+	 * whose value is unknown and has been set to missing.
+	 *
+	 * @param instance
+	 *            the instance to encode
+	 * @param outOfVocabulary
+	 *            receives the attribute indices of unknown values
+	 * @return the encoded instance
+	 */
+	public Instance encode(Instance instance, IntConsumer outOfVocabulary) {
+		return encode(instance, false, outOfVocabulary);
+	}
+
+	private Instance encode(Instance instance, boolean grow, IntConsumer outOfVocabulary) {
+		int numAttributes = outputHeader.numAttributes();
+		Instance encoded;
+		if (instance instanceof SparseInstance) {
+			// string attributes are always encoded, index 0 is a string as well
+			int[] indices = new int[numAttributes];
+			double[] values = new double[numAttributes];
+			int size = 0;
+			int position = 0;
+			for (int i = 0; i < numAttributes; i++) {
+				boolean stored = (position < instance.numValues()) && (instance.index(position) == i);
+				if (stored) {
+					position++;
+				}
+				if (stored || instance.attribute(i).isString()) {
+					indices[size] = i;
+					values[size] = encodeValue(instance, i, grow, outOfVocabulary);
+					size++;
+				}
+			}
+			encoded = new SparseInstance(instance.weight(), Arrays.copyOf(values, size), Arrays.copyOf(indices, size), numAttributes);
+		} else {
+			double[] values = new double[numAttributes];
+			for (int i = 0; i < numAttributes; i++) {
+				values[i] = encodeValue(instance, i, grow, outOfVocabulary);
+			}
+			encoded = new DenseInstance(instance.weight(), values);
+		}
+		encoded.setDataset(outputHeader);
+		return encoded;
+	}
+
+	private double encodeValue(Instance instance, int attIndex, boolean grow, IntConsumer outOfVocabulary) {
+		if (instance.isMissing(attIndex)) {
+			return Utils.missingValue();
+		} else if (!instance.attribute(attIndex).isString()) {
+			return instance.value(attIndex);
+		}
+		String value = instance.stringValue(attIndex);
+		int code = grow ? encodeAndGrow(attIndex, value) : encode(attIndex, value);
+		if (code < 0) {
+			outOfVocabulary.accept(attIndex);
+			return Utils.missingValue();
+		}
+		return code;
+	}
+
+	/**
+	 * Encodes a single value of the attribute.
+	 *
+	 * @param attIndex
+	 *            the index of the attribute
+	 * @param value
+	 *            the string value
+	 * @return the nominal index of the value or -1 if the value is unknown
+	 */
+	public int encode(int attIndex, String value) {
+		Dictionary dictionary = attributeDictionaries[attIndex];
+		if (dictionary == null) {
+			return outputHeader.attribute(attIndex).indexOfValue(value);
+		}
+		int id = dictionary.get(value);
+		if (id < 0) {
+			return -1;
+		}
+		int[] mapping = globalToLocal[attIndex];
+		int code;
+		if (mapping == null) {
+			code = id < numValues[attIndex] ? id : -1;
+		} else {
+			code = id < mapping.length ? mapping[id] : -1;
+		}
+		return code >= 0 ? code : addedValues[attIndex].get(id);
+	}
+
+	/**
+	 * @return the number of distinct lemmas of all word attributes
+	 */
+	public int getNumLemmas() {
+		return lemmas.size();
+	}
+
+	/**
+	 * @return the number of distinct POS tags of all POS attributes
+	 */
+	public int getNumPosTags() {
+		return posTags.size();
+	}
+
+	/**
+	 * @return the names of the attributes of the output format that use a
+	 *         shared dictionary
+	 */
+	public List<String> getSharedAttributes() {
+		List<String> shared = new ArrayList<>();
+		for (int i = 0; i < attributeDictionaries.length; i++) {
+			if (attributeDictionaries[i] != null) {
+				shared.add(outputHeader.attribute(i).name());
+			}
+		}
+		return shared;
+	}
+
+	@Override
+	public String getRevision() {
+		return RevisionUtils.extract("$Revision: 1.0 $");
+	}
+
+	/**
+	 * Append-only dictionary of strings to consecutive ids. Values can be added
+	 * concurrently, ids are never reassigned.
+	 */
+	private static final class Dictionary implements Serializable {
+		@Serial
+		private static final long serialVersionUID = 6096412460815385208L;
+
+		private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+		private final AtomicInteger nextId = new AtomicInteger();
+
+		private int add(String value) {
+			return ids.computeIfAbsent(value, v -> nextId.getAndIncrement());
+		}
+
+		private int get(String value) {
+			return ids.getOrDefault(value, -1);
+		}
+
+		private int size() {
+			return nextId.get();
+		}
+	}
+
+	/**
+	 * The values of a shared attribute that were added after training: maps their
+	 * global ids to nominal indices after the trained values. Append-only.
+	 */
+	private static final class AddedValues implements Serializable {
+		@Serial
+		private static final long serialVersionUID = -2409715528372962243L;
+
+		private final ConcurrentHashMap<Integer, Integer> codes = new ConcurrentHashMap<>();
+		private final AtomicInteger nextCode;
+
+		private AddedValues(int numTrainedValues) {
+			nextCode = new AtomicInteger(numTrainedValues);
+		}
+
+		private int add(int id) {
+			return codes.computeIfAbsent(id, i -> nextCode.getAndIncrement());
+		}
+
+		private int get(int id) {
+			return codes.getOrDefault(id, -1);
+		}
+	}
+}
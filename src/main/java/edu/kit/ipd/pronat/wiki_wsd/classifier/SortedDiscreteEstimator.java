@@ -0,0 +1,120 @@
+package edu.kit.ipd.pronat.wiki_wsd.classifier;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * {@link SparseDiscreteEstimator} that stores the seen symbols in a sorted int
+ * array and their counts in a parallel double array. Lookups use binary search.
+ * This is much smaller than a map, but adding an unseen symbol copies the
+ * arrays, so it is meant for estimators that are (mostly) done with training.
+ *
+ * @author Jan Keim
+ * @author Sebastian Weigelt
+ *
+ */
+public class SortedDiscreteEstimator extends SparseDiscreteEstimator {
+	@Serial
+	private static final long serialVersionUID = 3346870591563493687L;
+
+	/** Hold the symbols and counts, replaced as a whole when a symbol is added */
+	private volatile Table table = new Table(new int[0], new double[0]);
+	/** Hold the sum of counts, changed while holding the lock */
+	private volatile double sumOfCounts;
+
+	/**
+	 * Creates a sorted copy of the given estimator.
+	 *
+	 * @param source
+	 *            the estimator to copy
+	 */
+	public SortedDiscreteEstimator(SparseDiscreteEstimator source) {
+		super(true);
+		copyFrom(source);
+	}
+
+	@Override
+	public synchronized void addValue(double data, double weight) {
+		int symbol = (int) data;
+		Table current = table;
+		int pos = Arrays.binarySearch(current.symbols, symbol);
+		if (pos >= 0) {
+			current.counts[pos] += weight;
+		} else {
+			table = current.insert(-pos - 1, symbol, getPrior() + weight);
+		}
+		sumOfCounts += weight;
+	}
+
+	@Override
+	public double getSumOfCounts() {
+		return sumOfCounts;
+	}
+
+	@Override
+	protected void setSumOfCounts(double sumOfCounts) {
+		this.sumOfCounts = sumOfCounts;
+	}
+
+	@Override
+	protected synchronized void addToSumOfCounts(double weight) {
+		sumOfCounts += weight;
+	}
+
+	@Override
+	protected double countOf(int symbol) {
+		Table current = table;
+		int pos = Arrays.binarySearch(current.symbols, symbol);
+		return pos >= 0 ? current.counts[pos] : getPrior();
+	}
+
+	@Override
+	protected synchronized void putCount(int symbol, double count) {
+		Table current = table;
+		int pos = Arrays.binarySearch(current.symbols, symbol);
+		if (pos >= 0) {
+			current.counts[pos] = count;
+		} else {
+			table = current.insert(-pos - 1, symbol, count);
+		}
+	}
+
+	@Override
+	protected void forEachCount(CountConsumer consumer) {
+		Table current = table;
+		for (int i = 0; i < current.symbols.length; i++) {
+			consumer.accept(current.symbols[i], current.counts[i]);
+		}
+	}
+
+	@Override
+	protected int numStoredCounts() {
+		return table.symbols.length;
+	}
+
+	private static final class Table implements Serializable {
+		@Serial
+		private static final long serialVersionUID = 498084265202733591L;
+
+		private final int[] symbols;
+		private final double[] counts;
+
+		private Table(int[] symbols, double[] counts) {
+			this.symbols = symbols;
+			this.counts = counts;
+		}
+
+		private Table insert(int pos, int symbol, double count) {
+			int[] newSymbols = new int[symbols.length + 1];
+			double[] newCounts = new double[counts.length + 1];
+			System.arraycopy(symbols, 0, newSymbols, 0, pos);
+			System.arraycopy(counts, 0, newCounts, 0, pos);
+			newSymbols[pos] = symbol;
+			newCounts[pos] = count;
+			System.arraycopy(symbols, pos, newSymbols, pos + 1, symbols.length - pos);
+			System.arraycopy(counts, pos, newCounts, pos + 1, counts.length - pos);
+			return new Table(newSymbols, newCounts);
+		}
+	}
+}
@@ -25,6 +25,7 @@ import java.io.Serial;
 import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 
 import weka.core.Aggregateable;
 import weka.core.Capabilities;
@@ -41,6 +42,16 @@ import weka.estimators.IncrementalEstimator;
  * Changed stuff by Jan Keim: use floats instead of double and a HashMap instead
  * of arrays for less memory usage
  *
+ * Subclasses may store the counts differently (see
+ * {@link DenseDiscreteEstimator} and {@link SortedDiscreteEstimator}), they
+ * have to override {@link #addValue(double, double)} and the count storage
+ * methods {@link #countOf(int)}, {@link #putCount(int, double)},
+ * {@link #forEachCount(CountConsumer)} and {@link #numStoredCounts()}. With
+ * {@link #SparseDiscreteEstimator(boolean)} they also store the sum of counts
+ * and override {@link #getSumOfCounts()}, {@link #setSumOfCounts(double)} and
+ * {@link #addToSumOfCounts(double)}, so the map and the atomic sum of this
+ * class are not allocated.
+ *
  * @author Len Trigg (trigg@cs.waikato.ac.nz), Jan Keim
  * @version $Revision: 11247 $
  */
@@ -49,19 +60,39 @@ public class SparseDiscreteEstimator extends Estimator implements IncrementalEst
 	@Serial
 	private static final long serialVersionUID = -874090346650710359L;
 
-	/** Hold the counts */
+	/** Hold the counts, null if a subclass stores them */
 	private final ConcurrentHashMap<Integer, Double> counts;
-	private int numSymbols;
+	/** grown by training threads while others score, see {@link #growNumSymbols(int)} */
+	private volatile int numSymbols;
 
-	/** Hold the sum of counts */
-	private AtomicReference<Double> sumOfCounts = new AtomicReference<>(0d);
+	/**
+	 * Counts the failed compare-and-set attempts on the sums of all estimators,
+	 * only if {@link #countSumRetries} is set
+	 */
+	private static final LongAdder sumRetries = new LongAdder();
+	/** whether to count the failed compare-and-set attempts, off for training */
+	private static volatile boolean countSumRetries;
+
+	/** Hold the sum of counts, null if a subclass stores it */
+	private final AtomicReference<Double> sumOfCounts;
 
 	/** Initialization for counts */
 	private double fPrior = 0d;
 
 	protected SparseDiscreteEstimator() {
-		counts = new ConcurrentHashMap<>();
-		sumOfCounts.set(0d);
+		this(false);
+	}
+
+	/**
+	 * Constructor for subclasses.
+	 *
+	 * @param ownStorage
+	 *            whether the subclass stores the counts and the sum of counts
+	 *            itself, the map and the sum of this class are not allocated then
+	 */
+	protected SparseDiscreteEstimator(boolean ownStorage) {
+		counts = ownStorage ? null : new ConcurrentHashMap<>();
+		sumOfCounts = ownStorage ? null : new AtomicReference<>(0d);
 	}
 
 	/**
@@ -73,9 +104,8 @@ public class SparseDiscreteEstimator extends Estimator implements IncrementalEst
 	 *            if true, counts will be initialized to 1
 	 */
 	public SparseDiscreteEstimator(int numSymbols, boolean laplace) {
-		counts = new ConcurrentHashMap<>();
+		this(false);
 		this.numSymbols = numSymbols;
-		sumOfCounts.set(0d);
 		if (laplace) {
 			fPrior = 1d;
 			sumOfCounts.set((double) numSymbols);
@@ -92,7 +122,7 @@ public class SparseDiscreteEstimator extends Estimator implements IncrementalEst
 	 *            value with which counts will be initialized
 	 */
 	public SparseDiscreteEstimator(int nSymbols, float fPrior) {
-		counts = new ConcurrentHashMap<>();
+		this(false);
 		this.fPrior = fPrior;
 		sumOfCounts.set((double) fPrior * (double) nSymbols);
 	}
@@ -108,7 +138,20 @@ public class SparseDiscreteEstimator extends Estimator implements IncrementalEst
 	@Override
 	public void addValue(double data, double weight) {
 		counts.compute((int) data, (key, value) -> value == null ? fPrior + weight : value + weight);
-		sumOfCounts.getAndUpdate(val -> val + weight);
+		addToSumOfCounts(weight);
+	}
+
+	/**
+	 * Removes a data value that has been added before from the current
+	 * estimator.
+	 *
+	 * @param data
+	 *            the data value to remove
+	 * @param weight
+	 *            the weight the data value has been added with
+	 */
+	public void removeValue(double data, double weight) {
+		addValue(data, -weight);
 	}
 
 	/**
@@ -120,11 +163,12 @@ public class SparseDiscreteEstimator extends Estimator implements IncrementalEst
 	 */
 	@Override
 	public double getProbability(double data) {
-		if (sumOfCounts.get() == 0) {
+		double sum = getSumOfCounts();
+		if (sum == 0) {
 			return 0;
 		}
 
-		return counts.getOrDefault((int) data, fPrior) / sumOfCounts.get();
+		return countOf((int) data) / sum;
 	}
 
 	/**
@@ -144,11 +188,11 @@ public class SparseDiscreteEstimator extends Estimator implements IncrementalEst
 	 * @return the count of the supplied value
 	 */
 	public double getCount(double data) {
-		if (sumOfCounts.get() == 0) {
+		if (getSumOfCounts() == 0) {
 			return 0;
 		}
 
-		return counts.getOrDefault((int) data, fPrior);
+		return countOf((int) data);
 	}
 
 	/**
@@ -166,7 +210,7 @@ public class SparseDiscreteEstimator extends Estimator implements IncrementalEst
 	@Override
 	public String toString() {
 		StringBuilder result = new StringBuilder("Discrete Estimator.");
-		result.append("  Total = ").append(sumOfCounts).append("\n");
+		result.append("  Total = ").append(getSumOfCounts()).append("\n");
 		return result.toString();
 	}
 
@@ -210,13 +254,9 @@ public class SparseDiscreteEstimator extends Estimator implements IncrementalEst
 				throw new IllegalArgumentException("DiscreteEstimator to aggregate has a different " + "number of symbols");
 			}
 
-			sumOfCounts.updateAndGet(val -> val + toAggregate.getSumOfCounts());
-			for (Integer i : toAggregate.counts.keySet()) {
-				Double otherVal = toAggregate.counts.get(i);
-				Double thisVal = counts.getOrDefault(i, fPrior);
-				counts.put(i, (thisVal + otherVal) - toAggregate.fPrior);
-			}
-			sumOfCounts.updateAndGet(val -> val - (toAggregate.fPrior * numSymbols));
+			addToSumOfCounts(toAggregate.getSumOfCounts());
+			toAggregate.forEachCount((i, otherVal) -> putCount(i, (countOf(i) + otherVal) - toAggregate.fPrior));
+			addToSumOfCounts(-(toAggregate.fPrior * numSymbols));
 			return this;
 		}
 	}
@@ -233,7 +273,7 @@ public class SparseDiscreteEstimator extends Estimator implements IncrementalEst
 	 */
 	@Override
 	public int hashCode() {
-		return Objects.hash(counts, fPrior, numSymbols, sumOfCounts);
+		return Objects.hash(getCounts(), fPrior, numSymbols, getSumOfCounts());
 	}
 
 	/*
@@ -253,8 +293,8 @@ public class SparseDiscreteEstimator extends Estimator implements IncrementalEst
 			return false;
 		}
 		SparseDiscreteEstimator other = (SparseDiscreteEstimator) obj;
-		return Objects.equals(counts, other.counts) && (Double.doubleToLongBits(fPrior) == Double.doubleToLongBits(other.fPrior))
-				&& (numSymbols == other.numSymbols) && Objects.equals(sumOfCounts, other.sumOfCounts);
+		return Objects.equals(getCounts(), other.getCounts()) && (Double.doubleToLongBits(fPrior) == Double.doubleToLongBits(other.fPrior))
+				&& (numSymbols == other.numSymbols) && (Double.doubleToLongBits(getSumOfCounts()) == Double.doubleToLongBits(other.getSumOfCounts()));
 	}
 
 	protected double getPrior() {
@@ -262,22 +302,142 @@ public class SparseDiscreteEstimator extends Estimator implements IncrementalEst
 	}
 
 	protected ConcurrentHashMap<Integer, Double> getCounts() {
-		return counts;
+		if (getClass() == SparseDiscreteEstimator.class) {
+			return counts;
+		}
+		ConcurrentHashMap<Integer, Double> result = new ConcurrentHashMap<>();
+		forEachCount(result::put);
+		return result;
 	}
 
 	protected void setNumSymbols(int numSymbols) {
 		this.numSymbols = numSymbols;
 	}
 
+	/**
+	 * Increases the number of symbols. The new symbols have the prior count, so
+	 * the sum of counts grows by the prior for each of them.
+	 *
+	 * @param newNumSymbols
+	 *            the new number of symbols, ignored if not larger
+	 */
+	synchronized void growNumSymbols(int newNumSymbols) {
+		if (newNumSymbols > numSymbols) {
+			addToSumOfCounts(fPrior * (newNumSymbols - numSymbols));
+			numSymbols = newNumSymbols;
+		}
+	}
+
 	protected void setSumOfCounts(double sumOfCounts) {
 		this.sumOfCounts.set(sumOfCounts);
 	}
 
+	protected void addToSumOfCounts(double weight) {
+		while (true) {
+			Double current = sumOfCounts.get();
+			if (sumOfCounts.compareAndSet(current, current + weight)) {
+				return;
+			}
+			if (countSumRetries) {
+				sumRetries.increment();
+			}
+		}
+	}
+
+	/**
+	 * Switches counting the failed compare-and-set attempts on the sums on or
+	 * off, e.g. for a benchmark. It is off by default, so training does not
+	 * update the shared counter.
+	 *
+	 * @param count
+	 *            whether to count the failed attempts
+	 */
+	static void setCountSumRetries(boolean count) {
+		countSumRetries = count;
+	}
+
+	/**
+	 * @return the number of failed compare-and-set attempts on the sums of all
+	 *         estimators since the last reset while counting was switched on, a
+	 *         measure of update contention
+	 */
+	static long getSumRetries() {
+		return sumRetries.sum();
+	}
+
+	/**
+	 * Resets the counter of {@link #getSumRetries()}.
+	 */
+	static void resetSumRetries() {
+		sumRetries.reset();
+	}
+
 	protected void setfPrior(double fPrior) {
 		this.fPrior = fPrior;
 	}
 
 	protected void setCounts(ConcurrentHashMap<Integer, Double> counts) {
-		this.counts.putAll(counts);
+		counts.forEach(this::putCount);
+	}
+
+	/**
+	 * Copies the settings and the counts of the given estimator into this one.
+	 *
+	 * @param source
+	 *            the estimator to copy
+	 */
+	protected void copyFrom(SparseDiscreteEstimator source) {
+		numSymbols = source.numSymbols;
+		fPrior = source.fPrior;
+		setSumOfCounts(source.getSumOfCounts());
+		source.forEachCount(this::putCount);
+	}
+
+	/**
+	 * Returns the stored count of the symbol or the prior if there is none.
+	 *
+	 * @param symbol
+	 *            the symbol
+	 * @return the count
+	 */
+	protected double countOf(int symbol) {
+		return counts.getOrDefault(symbol, fPrior);
+	}
+
+	/**
+	 * Stores the count of the symbol, the sum of counts is not changed.
+	 *
+	 * @param symbol
+	 *            the symbol
+	 * @param count
+	 *            the new count including the prior
+	 */
+	protected void putCount(int symbol, double count) {
+		counts.put(symbol, count);
+	}
+
+	/**
+	 * Passes all stored counts to the consumer.
+	 *
+	 * @param consumer
+	 *            the consumer
+	 */
+	protected void forEachCount(CountConsumer consumer) {
+		counts.forEach(consumer::accept);
+	}
+
+	/**
+	 * @return the number of symbols with a stored count
+	 */
+	protected int numStoredCounts() {
+		return counts.size();
+	}
+
+	/**
+	 * Consumer for stored counts.
+	 */
+	@FunctionalInterface
+	protected interface CountConsumer {
+		void accept(int symbol, double count);
 	}
 }
@@ -0,0 +1,158 @@
+package edu.kit.ipd.pronat.wiki_wsd.classifier;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Disambiguates the tokens of a token stream. The instances are built by a
+ * {@link StreamingFeatureExtractor} and classified with
+ * {@link ClassifierService#classifyInstanceWithLemma(Instance, String)} in
+ * parallel batches. Results are passed on in token order.
+ *
+ * Not thread-safe, use one disambiguator per stream.
+ *
+ * @author Jan Keim
+ * @author Sebastian Weigelt
+ *
+ */
+public class StreamingDisambiguator implements AutoCloseable {
+	/** Default number of targets that are classified together */
+	public static final int DEFAULT_BATCH_SIZE = 256;
+
+	private final ClassifierService classifierService;
+	private final StreamingFeatureExtractor extractor;
+	private final Consumer<Result> consumer;
+	private final int batchSize;
+	private List<StreamingFeatureExtractor.Target> batch;
+
+	/**
+	 * Creates a disambiguator that uses every token as target.
+	 *
+	 * @param classifierService
+	 *            the service used for classification
+	 * @param header
+	 *            the header of the instances, see
+	 *            {@link ClassifierService#getEmptyInstancesHeader()}
+	 * @param consumer
+	 *            receives the results
+	 */
+	public StreamingDisambiguator(ClassifierService classifierService, Instances header, Consumer<Result> consumer) {
+		this(classifierService, header, pos -> true, DEFAULT_BATCH_SIZE, consumer);
+	}
+
+	/**
+	 * Creates a disambiguator.
+	 *
+	 * @param classifierService
+	 *            the service used for classification
+	 * @param header
+	 *            the header of the instances, see
+	 *            {@link ClassifierService#getEmptyInstancesHeader()}
+	 * @param isTargetPos
+	 *            decides by POS tag whether a token is disambiguated
+	 * @param batchSize
+	 *            the number of targets that are classified together
+	 * @param consumer
+	 *            receives the results
+	 */
+	public StreamingDisambiguator(ClassifierService classifierService, Instances header, Predicate<String> isTargetPos, int batchSize,
+			Consumer<Result> consumer) {
+		if (batchSize <= 0) {
+			throw new IllegalArgumentException("Batch size has to be positive!");
+		}
+		this.classifierService = classifierService;
+		this.consumer = consumer;
+		this.batchSize = batchSize;
+		batch = new ArrayList<>(batchSize);
+		extractor = new StreamingFeatureExtractor(header, isTargetPos, this::add);
+	}
+
+	/**
+	 * Adds the next token of the current sentence.
+	 *
+	 * @param lemma
+	 *            the lemma of the token
+	 * @param pos
+	 *            the POS tag of the token
+	 */
+	public void accept(String lemma, String pos) {
+		extractor.accept(lemma, pos);
+	}
+
+	/**
+	 * Ends the current sentence.
+	 */
+	public void endSentence() {
+		extractor.endSentence();
+	}
+
+	private void add(StreamingFeatureExtractor.Target target) {
+		batch.add(target);
+		if (batch.size() >= batchSize) {
+			flush();
+		}
+	}
+
+	/**
+	 * Classifies all targets that are ready and passes on their results. Targets
+	 * still waiting for their right context are not classified before their
+	 * sentence ends.
+	 */
+	public void flush() {
+		if (batch.isEmpty()) {
+			return;
+		}
+		List<StreamingFeatureExtractor.Target> targets = batch;
+		batch = new ArrayList<>(batchSize);
+		Classification[] classifications = new Classification[targets.size()];
+		IntStream.range(0, targets.size()).parallel().forEach(i -> {
+			StreamingFeatureExtractor.Target target = targets.get(i);
+			classifications[i] = classifierService.classifyInstanceWithLemma(target.getInstance(), target.getLemma());
+		});
+		for (int i = 0; i < classifications.length; i++) {
+			consumer.accept(new Result(targets.get(i), classifications[i]));
+		}
+	}
+
+	/**
+	 * Ends the current sentence and classifies all remaining targets.
+	 */
+	@Override
+	public void close() {
+		endSentence();
+		flush();
+	}
+
+	/**
+	 * The classification of a target token.
+	 */
+	public static final class Result {
+		private final StreamingFeatureExtractor.Target target;
+		private final Classification classification;
+
+		private Result(StreamingFeatureExtractor.Target target, Classification classification) {
+			this.target = target;
+			this.classification = classification;
+		}
+
+		/**
+		 * @return the target token
+		 */
+		public StreamingFeatureExtractor.Target getTarget() {
+			return target;
+		}
+
+		/**
+		 * @return the classification of the target token
+		 */
+		public Classification getClassification() {
+			return classification;
+		}
+	}
+}
@@ -0,0 +1,247 @@
+package edu.kit.ipd.pronat.wiki_wsd.classifier;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Builds the WSD instances of a token stream in one pass. Tokens are passed in
+ * as (lemma, POS) pairs with {@link #accept(String, String)}, sentences are
+ * ended with {@link #endSentence()}. Tokens that are filter words (see
+ * {@link ClassifierService#isFilterWord(String)}) are skipped and are neither
+ * targets nor context.
+ *
+ * For each target token the ±3 window and the nearest nouns (POS starting with
+ * NN) and verbs (POS starting with VB) to the left and right are collected
+ * incrementally. The left context is known when the target arrives, the right
+ * context is filled in by the following tokens. A target is emitted as soon as
+ * its right context is complete, the remaining targets of a sentence are
+ * emitted when it ends. Targets are emitted in token order.
+ *
+ * Not thread-safe, use one extractor per stream.
+ *
+ * @author Jan Keim
+ * @author Sebastian Weigelt
+ *
+ */
+public class StreamingFeatureExtractor {
+	private static final String NONE_VAL = "NONE";
+	private static final String NOUN_POS_PREFIX = "NN";
+	private static final String VERB_POS_PREFIX = "VB";
+	private static final int WINDOW_SIZE = 3;
+
+	private final Instances header;
+	private final Predicate<String> isTargetPos;
+	private final Consumer<Target> consumer;
+
+	/** the last (up to) three tokens of the sentence, the latest last */
+	private final Deque<String[]> leftWindow = new ArrayDeque<>(WINDOW_SIZE);
+	private final Deque<PendingTarget> pending = new ArrayDeque<>();
+	private String lastNoun = NONE_VAL;
+	private String lastVerb = NONE_VAL;
+	private int sentence;
+	private int position;
+
+	/**
+	 * Creates an extractor that uses every token as target.
+	 *
+	 * @param header
+	 *            the header of the instances, see
+	 *            {@link ClassifierService#getEmptyInstancesHeader()}
+	 * @param consumer
+	 *            receives the targets with their instances
+	 */
+	public StreamingFeatureExtractor(Instances header, Consumer<Target> consumer) {
+		this(header, pos -> true, consumer);
+	}
+
+	/**
+	 * Creates an extractor.
+	 *
+	 * @param header
+	 *            the header of the instances, see
+	 *            {@link ClassifierService#getEmptyInstancesHeader()}
+	 * @param isTargetPos
+	 *            decides by POS tag whether a token is a target
+	 * @param consumer
+	 *            receives the targets with their instances
+	 */
+	public StreamingFeatureExtractor(Instances header, Predicate<String> isTargetPos, Consumer<Target> consumer) {
+		this.header = header;
+		this.isTargetPos = isTargetPos;
+		this.consumer = consumer;
+	}
+
+	/**
+	 * Adds the next token of the current sentence.
+	 *
+	 * @param lemma
+	 *            the lemma of the token
+	 * @param pos
+	 *            the POS tag of the token
+	 */
+	public void accept(String lemma, String pos) {
+		int tokenPosition = position++;
+		if (ClassifierService.isFilterWord(lemma)) {
+			return;
+		}
+		boolean isNoun = pos.startsWith(NOUN_POS_PREFIX);
+		boolean isVerb = pos.startsWith(VERB_POS_PREFIX);
+
+		// this token is right context of the pending targets
+		for (PendingTarget target : pending) {
+			target.addRight(lemma, pos, isNoun, isVerb);
+		}
+		while (!pending.isEmpty() && pending.peekFirst().isComplete()) {
+			emit(pending.pollFirst());
+		}
+
+		if (isTargetPos.test(pos)) {
+			PendingTarget target = new PendingTarget(lemma, pos, tokenPosition);
+			target.builder.setLeftNoun(lastNoun).setLeftVerb(lastVerb);
+			Iterator<String[]> left = leftWindow.descendingIterator();
+			for (int distance = 1; left.hasNext(); distance++) {
+				String[] token = left.next();
+				target.setLeft(distance, token[0], token[1]);
+			}
+			pending.addLast(target);
+		}
+
+		if (leftWindow.size() == WINDOW_SIZE) {
+			leftWindow.pollFirst();
+		}
+		leftWindow.addLast(new String[] { lemma, pos });
+		if (isNoun) {
+			lastNoun = lemma;
+		}
+		if (isVerb) {
+			lastVerb = lemma;
+		}
+	}
+
+	/**
+	 * Ends the current sentence and emits all its remaining targets.
+	 */
+	public void endSentence() {
+		while (!pending.isEmpty()) {
+			emit(pending.pollFirst());
+		}
+		leftWindow.clear();
+		lastNoun = NONE_VAL;
+		lastVerb = NONE_VAL;
+		sentence++;
+		position = 0;
+	}
+
+	private void emit(PendingTarget target) {
+		consumer.accept(new Target(sentence, target.position, target.lemma, target.builder.build()));
+	}
+
+	private final class PendingTarget {
+		private final InstanceBuilder builder;
+		private final String lemma;
+		private final int position;
+		private int numRight;
+		private boolean hasRightNoun;
+		private boolean hasRightVerb;
+
+		private PendingTarget(String lemma, String pos, int position) {
+			builder = new InstanceBuilder(header).setActualWordWithPOS(lemma, pos);
+			this.lemma = lemma;
+			this.position = position;
+		}
+
+		private void setLeft(int distance, String lemma, String pos) {
+			switch (distance) {
+			case 1:
+				builder.set1stLeftWithPOS(lemma, pos);
+				break;
+			case 2:
+				builder.set2ndLeftWithPOS(lemma, pos);
+				break;
+			default:
+				builder.set3rdLeftWithPOS(lemma, pos);
+				break;
+			}
+		}
+
+		private void addRight(String lemma, String pos, boolean isNoun, boolean isVerb) {
+			if (numRight < WINDOW_SIZE) {
+				numRight++;
+				switch (numRight) {
+				case 1:
+					builder.set1stRightWithPOS(lemma, pos);
+					break;
+				case 2:
+					builder.set2ndRightWithPOS(lemma, pos);
+					break;
+				default:
+					builder.set3rdRightWithPOS(lemma, pos);
+					break;
+				}
+			}
+			if (isNoun && !hasRightNoun) {
+				hasRightNoun = true;
+				builder.setRightNoun(lemma);
+			}
+			if (isVerb && !hasRightVerb) {
+				hasRightVerb = true;
+				builder.setRightVerb(lemma);
+			}
+		}
+
+		private boolean isComplete() {
+			return (numRight == WINDOW_SIZE) && hasRightNoun && hasRightVerb;
+		}
+	}
+
+	/**
+	 * A target token with its instance.
+	 */
+	public static final class Target {
+		private final int sentence;
+		private final int position;
+		private final String lemma;
+		private final Instance instance;
+
+		private Target(int sentence, int position, String lemma, Instance instance) {
+			this.sentence = sentence;
+			this.position = position;
+			this.lemma = lemma;
+			this.instance = instance;
+		}
+
+		/**
+		 * @return the index of the sentence in the stream
+		 */
+		public int getSentence() {
+			return sentence;
+		}
+
+		/**
+		 * @return the index of the token in its sentence, counting filter words
+		 */
+		public int getPosition() {
+			return position;
+		}
+
+		/**
+		 * @return the lemma of the token
+		 */
+		public String getLemma() {
+			return lemma;
+		}
+
+		/**
+		 * @return the instance of the token
+		 */
+		public Instance getInstance() {
+			return instance;
+		}
+	}
+}
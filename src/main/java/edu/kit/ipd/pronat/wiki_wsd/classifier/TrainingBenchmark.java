@@ -0,0 +1,239 @@
+package edu.kit.ipd.pronat.wiki_wsd.classifier;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+
+/**
+ * Measures how {@link EfficientNaiveBayes#buildClassifier(Instances)} scales
+ * with the number of threads. The corpus is synthetic with the attributes of
+ * {@link ClassifierService#getAttributes()} (nominal): senses and words are
+ * drawn from Zipf distributions, each sense has a few lemmas and shifts the
+ * word distribution of its context.
+ *
+ * For each thread count the best of several runs is reported with instances
+ * per second, speedup and efficiency (speedup per thread) relative to one
+ * thread, the failed compare-and-set attempts on the estimator sums and how
+ * often and how long threads were blocked on monitors. Blocking is sampled
+ * with the {@link ThreadMXBean} while training, so short-lived threads may be
+ * missed partially.
+ *
+ * Usage: TrainingBenchmark [numInstances [numSenses [vocabularySize
+ * [maxThreads [runs]]]]]
+ *
+ * @author Jan Keim
+ * @author Sebastian Weigelt
+ *
+ */
+public class TrainingBenchmark {
+	private static final int NUM_POS_TAGS = 45;
+	private static final double ZIPF_EXPONENT = 1.0;
+	private static final long SAMPLE_INTERVAL_MILLIS = 5;
+
+	private TrainingBenchmark() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		int numInstances = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int numSenses = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+		int vocabularySize = args.length > 2 ? Integer.parseInt(args[2]) : 100000;
+		int maxThreads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+		int runs = args.length > 4 ? Integer.parseInt(args[4]) : 3;
+
+		Instances corpus = TrainingBenchmark.corpus(numInstances, numSenses, vocabularySize, new Random(42));
+		System.out.println(String.format("corpus: %d instances, %d senses, %d words", numInstances, numSenses, vocabularySize));
+
+		SparseDiscreteEstimator.setCountSumRetries(true);
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads.isThreadContentionMonitoringSupported()) {
+			threads.setThreadContentionMonitoringEnabled(true);
+		}
+		// warm-up
+		TrainingBenchmark.measure(corpus, maxThreads, threads);
+
+		System.out.println("threads  instances/s  speedup  efficiency  casRetries  blocked  blockedMs");
+		double baseline = 0;
+		for (int numThreads : TrainingBenchmark.threadCounts(maxThreads)) {
+			Measurement best = null;
+			for (int run = 0; run < runs; run++) {
+				Measurement measurement = TrainingBenchmark.measure(corpus, numThreads, threads);
+				if ((best == null) || (measurement.nanos < best.nanos)) {
+					best = measurement;
+				}
+			}
+			double throughput = numInstances / (best.nanos / 1e9);
+			if (numThreads == 1) {
+				baseline = throughput;
+			}
+			double speedup = throughput / baseline;
+			System.out.println(String.format("%7d  %11.0f  %7.2f  %10.2f  %10d  %7d  %9d", numThreads, throughput, speedup, speedup / numThreads,
+					best.sumRetries, best.blockedCount, best.blockedMillis));
+		}
+	}
+
+	private static List<Integer> threadCounts(int maxThreads) {
+		List<Integer> counts = new ArrayList<>();
+		for (int numThreads = 1; numThreads < maxThreads; numThreads *= 2) {
+			counts.add(numThreads);
+		}
+		counts.add(maxThreads);
+		return counts;
+	}
+
+	private static Measurement measure(Instances corpus, int numThreads, ThreadMXBean threads) throws Exception {
+		EfficientNaiveBayes classifier = new EfficientNaiveBayes();
+		classifier.setNumThreads(numThreads);
+		classifier.setCompactDistributions(false);
+		BlockingSampler sampler = new BlockingSampler(threads);
+		SparseDiscreteEstimator.resetSumRetries();
+		sampler.start();
+		long start = System.nanoTime();
+		classifier.buildClassifier(corpus);
+		long nanos = System.nanoTime() - start;
+		sampler.interrupt();
+		sampler.join();
+		return new Measurement(nanos, SparseDiscreteEstimator.getSumRetries(), sampler.blockedCount(), sampler.blockedMillis());
+	}
+
+	/**
+	 * Creates the synthetic corpus.
+	 */
+	static Instances corpus(int numInstances, int numSenses, int vocabularySize, Random random) {
+		ArrayList<Attribute> attributes = new ArrayList<>();
+		List<String> senses = TrainingBenchmark.values("sense", numSenses);
+		List<String> words = TrainingBenchmark.values("w", vocabularySize);
+		List<String> tags = TrainingBenchmark.values("POS", NUM_POS_TAGS);
+		for (Attribute attribute : ClassifierService.getAttributes()) {
+			List<String> values = attribute.name().equals("wordSense") ? senses : attribute.name().endsWith("POS") ? tags : words;
+			attributes.add(new Attribute(attribute.name(), values));
+		}
+		Instances corpus = new Instances("TrainingBenchmark", attributes, numInstances);
+		corpus.setClassIndex(0);
+
+		double[] senseCdf = TrainingBenchmark.zipfCdf(numSenses);
+		double[] wordCdf = TrainingBenchmark.zipfCdf(vocabularySize);
+		double[] tagCdf = TrainingBenchmark.zipfCdf(NUM_POS_TAGS);
+		for (int i = 0; i < numInstances; i++) {
+			double[] values = new double[attributes.size()];
+			int sense = TrainingBenchmark.sample(senseCdf, random);
+			values[0] = sense;
+			for (int att = 1; att < values.length; att++) {
+				String name = attributes.get(att).name();
+				if (name.equals("actualWord")) {
+					// a few lemmas per sense, shared between senses
+					values[att] = (sense + (random.nextInt(3) * 7919L)) % vocabularySize;
+				} else if (name.endsWith("POS")) {
+					values[att] = TrainingBenchmark.sample(tagCdf, random);
+				} else {
+					// the context depends on the sense
+					values[att] = (TrainingBenchmark.sample(wordCdf, random) + (sense * 104729L)) % vocabularySize;
+				}
+			}
+			corpus.add(new DenseInstance(1, values));
+		}
+		return corpus;
+	}
+
+	private static List<String> values(String prefix, int size) {
+		List<String> values = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			values.add(prefix + i);
+		}
+		return values;
+	}
+
+	private static double[] zipfCdf(int size) {
+		double[] cdf = new double[size];
+		double sum = 0;
+		for (int rank = 0; rank < size; rank++) {
+			sum += 1 / Math.pow(rank + 1, ZIPF_EXPONENT);
+			cdf[rank] = sum;
+		}
+		for (int rank = 0; rank < size; rank++) {
+			cdf[rank] /= sum;
+		}
+		return cdf;
+	}
+
+	private static int sample(double[] cdf, Random random) {
+		int pos = Arrays.binarySearch(cdf, random.nextDouble());
+		return Math.min(pos >= 0 ? pos : -pos - 1, cdf.length - 1);
+	}
+
+	private static final class Measurement {
+		private final long nanos;
+		private final long sumRetries;
+		private final long blockedCount;
+		private final long blockedMillis;
+
+		private Measurement(long nanos, long sumRetries, long blockedCount, long blockedMillis) {
+			this.nanos = nanos;
+			this.sumRetries = sumRetries;
+			this.blockedCount = blockedCount;
+			this.blockedMillis = blockedMillis;
+		}
+	}
+
+	/**
+	 * Samples the monitor blocking of all threads since the sampler was created.
+	 */
+	private static final class BlockingSampler extends Thread {
+		private final ThreadMXBean threads;
+		private final Map<Long, long[]> initial = new ConcurrentHashMap<>();
+		private final Map<Long, long[]> latest = new ConcurrentHashMap<>();
+
+		private BlockingSampler(ThreadMXBean threads) {
+			super("blocking-sampler");
+			this.threads = threads;
+			setDaemon(true);
+			sample(initial);
+		}
+
+		@Override
+		public void run() {
+			while (!isInterrupted()) {
+				sample(latest);
+				try {
+					Thread.sleep(SAMPLE_INTERVAL_MILLIS);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}
+
+		private void sample(Map<Long, long[]> target) {
+			for (ThreadInfo info : threads.getThreadInfo(threads.getAllThreadIds())) {
+				if (info != null) {
+					target.put(info.getThreadId(), new long[] { info.getBlockedCount(), Math.max(0, info.getBlockedTime()) });
+				}
+			}
+		}
+
+		private long blockedCount() {
+			return sum(0);
+		}
+
+		private long blockedMillis() {
+			return sum(1);
+		}
+
+		private long sum(int index) {
+			long sum = 0;
+			for (Map.Entry<Long, long[]> entry : latest.entrySet()) {
+				long[] before = initial.getOrDefault(entry.getKey(), new long[2]);
+				sum += entry.getValue()[index] - before[index];
+			}
+			return sum;
+		}
+	}
+}
@@ -0,0 +1,26 @@
+package edu.kit.ipd.pronat.wiki_wsd.classifier;
+
+/**
+ * Receives the progress of training an {@link EfficientNaiveBayes}, see
+ * {@link EfficientNaiveBayes#setTrainingListener(TrainingListener)}. Called by
+ * the training threads, so implementations have to be thread-safe and fast.
+ *
+ * @author Jan Keim
+ * @author Sebastian Weigelt
+ *
+ */
+@FunctionalInterface
+public interface TrainingListener {
+	/**
+	 * Called every {@link EfficientNaiveBayes#PROGRESS_INTERVAL} instances and
+	 * when all instances have been processed.
+	 *
+	 * @param processed
+	 *            the number of instances processed so far
+	 * @param total
+	 *            the number of instances to process
+	 * @param instancesPerSecond
+	 *            the throughput since the start of the update
+	 */
+	void progress(long processed, long total, double instancesPerSecond);
+}
@@ -0,0 +1,97 @@
+package edu.kit.ipd.pronat.wiki_wsd.classifier;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Result of updating an {@link EfficientNaiveBayes} with many instances:
+ * how many instances were processed, which of them failed and whether the
+ * update was cancelled.
+ *
+ * @author Jan Keim
+ * @author Sebastian Weigelt
+ *
+ */
+public final class TrainingReport {
+	/** At most this many failures are kept */
+	public static final int MAX_RECORDED_FAILURES = 100;
+
+	private final long processed;
+	private final long failed;
+	private final List<Exception> failures;
+	private final boolean cancelled;
+	private final long elapsedNanos;
+
+	TrainingReport(long processed, long failed, List<Exception> failures, boolean cancelled, long elapsedNanos) {
+		this.processed = processed;
+		this.failed = failed;
+		this.failures = Collections.unmodifiableList(failures);
+		this.cancelled = cancelled;
+		this.elapsedNanos = elapsedNanos;
+	}
+
+	/**
+	 * @return the number of instances processed, including failed ones
+	 */
+	public long getProcessed() {
+		return processed;
+	}
+
+	/**
+	 * @return the number of instances that could not be processed
+	 */
+	public long getFailed() {
+		return failed;
+	}
+
+	/**
+	 * @return the first {@link #MAX_RECORDED_FAILURES} failures
+	 */
+	public List<Exception> getFailures() {
+		return failures;
+	}
+
+	/**
+	 * @return whether some instances could not be processed
+	 */
+	public boolean hasFailures() {
+		return failed > 0;
+	}
+
+	/**
+	 * Throws an exception if some instances could not be processed. Its cause is
+	 * the first recorded failure, the other recorded failures are suppressed.
+	 *
+	 * @throws Exception
+	 *             if some instances could not be processed
+	 */
+	public void throwIfFailed() throws Exception {
+		if (failed > 0) {
+			Exception exception = new Exception(failed + " of " + processed + " instances could not be processed",
+					failures.isEmpty() ? null : failures.get(0));
+			failures.stream().skip(1).forEach(exception::addSuppressed);
+			throw exception;
+		}
+	}
+
+	/**
+	 * @return whether the update was cancelled before all instances were
+	 *         processed
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * @return the duration of the update in nanoseconds
+	 */
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	@Override
+	public String toString() {
+		return "TrainingReport [processed=" + processed + ", failed=" + failed + ", cancelled=" + cancelled + ", elapsedMillis="
+				+ (elapsedNanos / 1000000) + "]";
+	}
+}
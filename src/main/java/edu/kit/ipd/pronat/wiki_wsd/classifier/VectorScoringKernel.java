@@ -0,0 +1,68 @@
+package edu.kit.ipd.pronat.wiki_wsd.classifier;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The loops of the {@link ScoringKernel} with the Vector API. This class is
+ * only compiled with the Maven profile <code>vector-api</code> and only loaded
+ * if the jdk.incubator.vector module is available, see
+ * {@link ScoringKernel#isVectorized()}.
+ *
+ * The logarithms of the last, partial vector of a row are computed with a mask,
+ * so each score gets the same logarithm wherever a row starts, e.g. when the
+ * classes are scored in ranges.
+ *
+ * @author Jan Keim
+ * @author Sebastian Weigelt
+ *
+ */
+final class VectorScoringKernel implements ScoringKernel.Accumulator {
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+	VectorScoringKernel() {
+	}
+
+	/**
+	 * @return whether a vector holds more than one double
+	 */
+	@Override
+	public boolean isSupported() {
+		return SPECIES.length() > 1;
+	}
+
+	/**
+	 * See {@link ScoringKernel#accumulate(double[], int, double[], double)}. The
+	 * results are the same as the ones of the scalar loop.
+	 */
+	@Override
+	public void accumulate(double[] accumulator, int from, double[] row, double factor) {
+		int k = 0;
+		for (int bound = SPECIES.loopBound(row.length); k < bound; k += SPECIES.length()) {
+			DoubleVector values = DoubleVector.fromArray(SPECIES, row, k).mul(factor);
+			DoubleVector.fromArray(SPECIES, accumulator, from + k).add(values).intoArray(accumulator, from + k);
+		}
+		for (; k < row.length; k++) {
+			accumulator[from + k] += factor * row[k];
+		}
+	}
+
+	/**
+	 * See {@link ScoringKernel#accumulateLog(double[], int, double[], double)}.
+	 */
+	@Override
+	public void accumulateLog(double[] accumulator, int from, double[] probabilities, double factor) {
+		int k = 0;
+		for (int bound = SPECIES.loopBound(probabilities.length); k < bound; k += SPECIES.length()) {
+			DoubleVector logs = DoubleVector.fromArray(SPECIES, probabilities, k).lanewise(VectorOperators.LOG).mul(factor);
+			DoubleVector.fromArray(SPECIES, accumulator, from + k).add(logs).intoArray(accumulator, from + k);
+		}
+		if (k < probabilities.length) {
+			VectorMask<Double> mask = SPECIES.indexInRange(k, probabilities.length);
+			DoubleVector logs = DoubleVector.fromArray(SPECIES, probabilities, k, mask).lanewise(VectorOperators.LOG).mul(factor);
+			DoubleVector.fromArray(SPECIES, accumulator, from + k, mask).add(logs).intoArray(accumulator, from + k, mask);
+		}
+	}
+}
@@ -0,0 +1,119 @@
+package edu.kit.ipd.pronat.wiki_wsd.classifier;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.estimators.Estimator;
+
+/**
+ * Warms up a {@link ClassifierService}: touches all counts of the model once
+ * and runs classifications through all entry points in rounds until the mean
+ * latency of a round stays stable, so the JIT has compiled the scoring loops.
+ *
+ * @author Jan Keim
+ * @author Sebastian Weigelt
+ *
+ */
+final class WarmUp {
+	/** classifications per round */
+	static final int ROUND_SIZE = 250;
+	/** maximum relative change of the mean latency between stable rounds */
+	static final double STABLE_TOLERANCE = 0.1;
+	/** number of consecutive stable rounds for a steady state */
+	static final int STABLE_ROUNDS = 3;
+	private static final int NUM_SYNTHETIC_INSTANCES = 1000;
+
+	private WarmUp() {
+	}
+
+	static WarmUpReport run(ClassifierService service, List<Instance> samples, int maxClassifications) {
+		long start = System.nanoTime();
+		EfficientNaiveBayes model = service.getClassifier() instanceof EfficientNaiveBayes ? (EfficientNaiveBayes) service.getClassifier() : null;
+		if (model != null) {
+			model.touch();
+		}
+		List<Instance> instances = samples;
+		if (((instances == null) || instances.isEmpty()) && (model != null)) {
+			instances = WarmUp.syntheticInstances(model, new Random(42));
+		}
+		if ((instances == null) || instances.isEmpty()) {
+			return new WarmUpReport(0, false, 0, System.nanoTime() - start);
+		}
+
+		int classifications = 0;
+		int stableRounds = 0;
+		long lastLatency = -1;
+		while (classifications < maxClassifications) {
+			long roundStart = System.nanoTime();
+			int roundClassifications = Math.min(ROUND_SIZE, maxClassifications - classifications);
+			for (int i = 0; i < roundClassifications; i++) {
+				WarmUp.classify(service, instances.get((classifications + i) % instances.size()), classifications + i);
+			}
+			classifications += roundClassifications;
+			long latency = (System.nanoTime() - roundStart) / roundClassifications;
+
+			if ((lastLatency > 0) && (Math.abs(latency - lastLatency) <= (STABLE_TOLERANCE * lastLatency))) {
+				stableRounds++;
+			} else {
+				stableRounds = 0;
+			}
+			lastLatency = latency;
+			if (stableRounds >= STABLE_ROUNDS) {
+				return new WarmUpReport(classifications, true, latency, System.nanoTime() - start);
+			}
+		}
+		return new WarmUpReport(classifications, false, Math.max(lastLatency, 0), System.nanoTime() - start);
+	}
+
+	/**
+	 * Cycles through the entry points of the service.
+	 */
+	private static void classify(ClassifierService service, Instance instance, int iteration) {
+		String lemma = instance.attribute(1).isString() && !instance.isMissing(1) ? instance.stringValue(1) : "";
+		switch (iteration % 4) {
+		case 0:
+			service.classifyInstance(instance);
+			break;
+		case 1:
+			service.classifyInstanceTop3(instance);
+			break;
+		case 2:
+			service.classifyInstanceWithLemma(instance, lemma);
+			break;
+		default:
+			service.classifyInstanceWithLemma(instance, lemma, 5);
+			break;
+		}
+	}
+
+	/**
+	 * Creates already filtered instances with random values of the model's
+	 * attributes.
+	 */
+	private static List<Instance> syntheticInstances(EfficientNaiveBayes model, Random random) {
+		Instances header = model.getTrainingHeader();
+		Estimator[][] distributions = model.getDistributions();
+		List<Instance> instances = new ArrayList<>(NUM_SYNTHETIC_INSTANCES);
+		for (int n = 0; n < NUM_SYNTHETIC_INSTANCES; n++) {
+			double[] values = new double[header.numAttributes()];
+			int attIndex = 0;
+			for (int i = 0; i < values.length; i++) {
+				if (i == header.classIndex()) {
+					values[i] = random.nextInt(Math.max(1, model.getNumClasses()));
+					continue;
+				}
+				int numSymbols = ((SparseDiscreteEstimator) distributions[attIndex][0]).getNumSymbols();
+				values[i] = random.nextInt(Math.max(1, numSymbols));
+				attIndex++;
+			}
+			Instance instance = new DenseInstance(1, values);
+			instance.setDataset(header);
+			instances.add(instance);
+		}
+		return instances;
+	}
+}
@@ -0,0 +1,56 @@
+package edu.kit.ipd.pronat.wiki_wsd.classifier;
+
+/**
+ * Result of {@link ClassifierService#warmUp(java.util.List, int)}.
+ *
+ * @author Jan Keim
+ * @author Sebastian Weigelt
+ *
+ */
+public class WarmUpReport {
+	private final int classifications;
+	private final boolean steadyState;
+	private final long steadyStateLatencyNanos;
+	private final long elapsedNanos;
+
+	WarmUpReport(int classifications, boolean steadyState, long steadyStateLatencyNanos, long elapsedNanos) {
+		this.classifications = classifications;
+		this.steadyState = steadyState;
+		this.steadyStateLatencyNanos = steadyStateLatencyNanos;
+		this.elapsedNanos = elapsedNanos;
+	}
+
+	/**
+	 * @return the number of classifications run for warming up
+	 */
+	public int getClassifications() {
+		return classifications;
+	}
+
+	/**
+	 * @return whether the latency reached a steady state
+	 */
+	public boolean isSteadyState() {
+		return steadyState;
+	}
+
+	/**
+	 * @return the mean latency of a classification in the last round
+	 */
+	public long getSteadyStateLatencyNanos() {
+		return steadyStateLatencyNanos;
+	}
+
+	/**
+	 * @return the time the warm-up took including pre-touching the model
+	 */
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	@Override
+	public String toString() {
+		return "WarmUpReport [classifications=" + classifications + ", steadyState=" + steadyState + ", steadyStateLatencyNanos="
+				+ steadyStateLatencyNanos + ", elapsedNanos=" + elapsedNanos + "]";
+	}
+}